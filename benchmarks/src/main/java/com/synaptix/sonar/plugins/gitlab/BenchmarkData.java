@@ -0,0 +1,241 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.IssueComment;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic inputs shared by the benchmarks, generated from fixed seeds so that runs can be compared.
+ */
+final class BenchmarkData {
+
+    static final String COMMIT_SHA = "0123456789abcdef0123456789abcdef01234567";
+    static final String WEB_URL = "https://gitlab.example.com/group/project";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * A unified diff adding {@code lines} lines in hunks of 20, each with 3 lines of context around it.
+     */
+    static String patch(int lines) {
+        StringBuilder patch = new StringBuilder(lines * 40);
+        int newLine = 1;
+        for (int added = 0; added < lines; added += 20) {
+            int hunkLines = Math.min(20, lines - added);
+            patch.append("@@ -").append(newLine).append(",7 +").append(newLine).append(',').append(hunkLines + 6).append(" @@\n");
+            for (int i = 0; i < 3; i++) {
+                patch.append("     context();\n");
+            }
+            for (int i = 0; i < hunkLines; i++) {
+                patch.append("+    added(").append(added + i).append(");\n");
+            }
+            patch.append("-    removed();\n");
+            for (int i = 0; i < 3; i++) {
+                patch.append("     context();\n");
+            }
+            newLine += hunkLines + 6 + 40;
+        }
+        return patch.toString();
+    }
+
+    static String path(int file) {
+        return "src/main/java/com/example/module" + (file % 20) + "/Type" + file + ".java";
+    }
+
+    static BenchmarkIssue issue(int index, int fileCount) {
+        String severity = Severity.ALL.get(index % Severity.ALL.size());
+        return new BenchmarkIssue("component:" + path(index % fileCount), index % 500 + 1, severity,
+                RuleKey.of("squid", "S" + (100 + index % 50)), "Issue number " + index + " should be fixed <here> & [there]", index % 3 != 0);
+    }
+
+    /**
+     * Plain {@link Issue} so that the benchmarks do not measure a mocking library.
+     */
+    static final class BenchmarkIssue implements Issue {
+
+        private final String componentKey;
+        private final Integer line;
+        private final String severity;
+        private final RuleKey ruleKey;
+        private final String message;
+        private final boolean isNew;
+
+        BenchmarkIssue(String componentKey, Integer line, String severity, RuleKey ruleKey, String message, boolean isNew) {
+            this.componentKey = componentKey;
+            this.line = line;
+            this.severity = severity;
+            this.ruleKey = ruleKey;
+            this.message = message;
+            this.isNew = isNew;
+        }
+
+        @Override
+        public String key() {
+            return componentKey + ":" + line;
+        }
+
+        @Override
+        public String componentKey() {
+            return componentKey;
+        }
+
+        @Override
+        public RuleKey ruleKey() {
+            return ruleKey;
+        }
+
+        @Override
+        public String language() {
+            return "java";
+        }
+
+        @Override
+        public String severity() {
+            return severity;
+        }
+
+        @Override
+        public String message() {
+            return message;
+        }
+
+        @Override
+        public Integer line() {
+            return line;
+        }
+
+        @Override
+        public Double effortToFix() {
+            return null;
+        }
+
+        @Override
+        public Double gap() {
+            return null;
+        }
+
+        @Override
+        public String status() {
+            return Issue.STATUS_OPEN;
+        }
+
+        @Override
+        public String resolution() {
+            return null;
+        }
+
+        @Override
+        public String reporter() {
+            return null;
+        }
+
+        @Override
+        public String assignee() {
+            return null;
+        }
+
+        @Override
+        public Date creationDate() {
+            return null;
+        }
+
+        @Override
+        public Date updateDate() {
+            return null;
+        }
+
+        @Override
+        public Date closeDate() {
+            return null;
+        }
+
+        @Override
+        public String attribute(String key) {
+            return null;
+        }
+
+        @Override
+        public Map<String, String> attributes() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String authorLogin() {
+            return null;
+        }
+
+        @Override
+        public String actionPlanKey() {
+            return null;
+        }
+
+        @Override
+        public List<IssueComment> comments() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isNew() {
+            return isNew;
+        }
+
+        @Override
+        public Duration debt() {
+            return null;
+        }
+
+        @Override
+        public Duration effort() {
+            return null;
+        }
+
+        @Override
+        public String projectKey() {
+            return "project";
+        }
+
+        @Override
+        public String projectUuid() {
+            return "project";
+        }
+
+        @Override
+        public String componentUuid() {
+            return componentKey;
+        }
+
+        @Override
+        public Collection<String> tags() {
+            return Collections.emptyList();
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the global summary comment: {@link GlobalReport#process} for every issue, then
+ * {@link GlobalReport#formatForMarkdown()} on a filled report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobalReportBenchmark {
+
+    private static final int FILES = 500;
+
+    @Param({"1000", "10000", "100000"})
+    public int issues;
+
+    private GitLabPluginConfiguration config;
+    private MarkDownUtils markDownUtils;
+    private Issue[] newIssues;
+    private String[] urls;
+    private GlobalReport filledReport;
+
+    @Setup
+    public void setUp() {
+        Settings settings = new Settings();
+        settings.setProperty("sonar.host.url", "https://sonar.example.com");
+        settings.setProperty(GitLabPlugin.GITLAB_MAX_GLOBAL_ISSUES, 10);
+        config = new GitLabPluginConfiguration(settings);
+        markDownUtils = new MarkDownUtils(settings);
+
+        newIssues = new Issue[issues];
+        urls = new String[issues];
+        for (int i = 0; i < issues; i++) {
+            newIssues[i] = BenchmarkData.issue(i, FILES);
+            urls[i] = BenchmarkData.WEB_URL + "/blob/" + BenchmarkData.COMMIT_SHA + "/" + BenchmarkData.path(i % FILES) + "#L" + newIssues[i].line();
+        }
+        filledReport = process();
+    }
+
+    @Benchmark
+    public GlobalReport process() {
+        GlobalReport report = new GlobalReport(config, markDownUtils);
+        for (int i = 0; i < newIssues.length; i++) {
+            report.process(newIssues[i], urls[i], i % 4 != 0);
+        }
+        return report;
+    }
+
+    @Benchmark
+    public String formatForMarkdown() {
+        return filledReport.formatForMarkdown();
+    }
+
+}
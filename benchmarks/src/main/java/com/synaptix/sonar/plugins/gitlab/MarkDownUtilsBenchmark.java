@@ -0,0 +1,112 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of a single issue, inline and in the global comment, either to a new string or appended to a reused
+ * builder as the post job does. Run with the GC profiler, gc.alloc.rate.norm is the allocation per issue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkDownUtilsBenchmark {
+
+    private static final int ISSUES = 1024;
+
+    private MarkDownUtils markDownUtils;
+    private Issue[] issues;
+    private String[] ruleKeys;
+    private String[] urls;
+    private StringBuilder sb;
+
+    @Setup
+    public void setUp() {
+        Settings settings = new Settings();
+        settings.setProperty("sonar.host.url", "https://sonar.example.com");
+        markDownUtils = new MarkDownUtils(settings);
+
+        issues = new Issue[ISSUES];
+        ruleKeys = new String[ISSUES];
+        urls = new String[ISSUES];
+        for (int i = 0; i < ISSUES; i++) {
+            issues[i] = BenchmarkData.issue(i, 100);
+            ruleKeys[i] = issues[i].ruleKey().toString();
+            urls[i] = i % 5 == 0 ? null : BenchmarkData.WEB_URL + "/blob/" + BenchmarkData.COMMIT_SHA + "/" + BenchmarkData.path(i % 100);
+        }
+        sb = new StringBuilder();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ISSUES)
+    public void inlineIssue(Blackhole blackhole) {
+        for (int i = 0; i < ISSUES; i++) {
+            blackhole.consume(markDownUtils.inlineIssue(issues[i].severity(), issues[i].message(), ruleKeys[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ISSUES)
+    public void globalIssue(Blackhole blackhole) {
+        for (int i = 0; i < ISSUES; i++) {
+            Issue issue = issues[i];
+            blackhole.consume(markDownUtils.globalIssue(issue.severity(), issue.message(), ruleKeys[i], urls[i], issue.componentKey()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ISSUES)
+    public void appendInlineIssue(Blackhole blackhole) {
+        for (int i = 0; i < ISSUES; i++) {
+            sb.setLength(0);
+            blackhole.consume(markDownUtils.appendInlineIssue(sb, issues[i].severity(), issues[i].message(), ruleKeys[i]).length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ISSUES)
+    public void appendGlobalIssue(Blackhole blackhole) {
+        for (int i = 0; i < ISSUES; i++) {
+            Issue issue = issues[i];
+            sb.setLength(0);
+            blackhole.consume(markDownUtils.appendGlobalIssue(sb, issue.severity(), issue.message(), ruleKeys[i], urls[i], issue.componentKey()).length());
+        }
+    }
+
+}
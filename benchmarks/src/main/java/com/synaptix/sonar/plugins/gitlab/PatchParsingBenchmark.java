@@ -0,0 +1,93 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a commit diff into the changed line index, and looking lines up in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchParsingBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"10", "1000", "100000"})
+    public int lines;
+
+    private List<GitlabCommitDiff> diffs;
+    private ChangedLineIndex index;
+    private String path;
+    private int[] probes;
+
+    @Setup
+    public void setUp() {
+        path = BenchmarkData.path(0);
+        GitlabCommitDiff diff = new GitlabCommitDiff();
+        diff.setNewPath(path);
+        diff.setDiff(BenchmarkData.patch(lines));
+        diffs = Collections.singletonList(diff);
+        index = CommitFacade.mapPatchPositionsToLines(diffs);
+
+        Random random = new Random(42);
+        int lastLine = lines * 3 + 100;
+        probes = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = 1 + random.nextInt(lastLine);
+        }
+    }
+
+    @Benchmark
+    public ChangedLineIndex parse() {
+        return CommitFacade.mapPatchPositionsToLines(diffs);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public void lookup(Blackhole blackhole) {
+        for (int probe : probes) {
+            blackhole.consume(index.hasLine(path, probe));
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.Settings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Git path of the file of each issue, resolved from its {@link InputFile} by {@link CommitFacade#getPath(org.sonar.api.batch.fs.InputPath)}
+ * as before the input file cache kept it, or read back by {@link InputFileCache#pathByKey(String)}. One operation
+ * looks up the path of every issue, issues being spread over the files like in {@link ProcessIssuesBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathLookupBenchmark {
+
+    private static final int FILES = 500;
+
+    @Param({"1000", "10000"})
+    public int issues;
+
+    private Path gitBaseDir;
+    private CommitFacade commitFacade;
+    private InputFileCache inputFileCache;
+    private InputFile[] inputFiles;
+    private String[] componentKeys;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Module inside a Git repository, GitLab is replayed from an empty recording as only local paths are resolved
+        gitBaseDir = Files.createTempDirectory("path-lookup-benchmark");
+        Files.createDirectory(gitBaseDir.resolve(".git"));
+        Path moduleBaseDir = Files.createDirectory(gitBaseDir.resolve("module"));
+        Path replayFile = Files.createFile(gitBaseDir.resolve("replay.jsonl"));
+        Settings settings = new Settings();
+        settings.setProperty(GitLabPlugin.GITLAB_URL, "https://gitlab.example.com");
+        settings.setProperty(GitLabPlugin.GITLAB_PROJECT_ID, "group/project");
+        settings.setProperty(GitLabPlugin.GITLAB_COMMIT_SHA, BenchmarkData.COMMIT_SHA);
+        settings.setProperty(GitLabPlugin.GITLAB_REPLAY_FILE, replayFile.toString());
+        commitFacade = new CommitFacade(new GitLabPluginConfiguration(settings), new GitLabMetrics());
+        commitFacade.init(moduleBaseDir.toFile());
+
+        inputFileCache = new InputFileCache();
+        InputFile[] files = new InputFile[FILES];
+        for (int file = 0; file < FILES; file++) {
+            String path = BenchmarkData.path(file);
+            files[file] = new DefaultInputFile("module", path).setModuleBaseDir(moduleBaseDir);
+            inputFileCache.put("component:" + path, files[file], commitFacade.getPath(files[file]));
+        }
+        inputFiles = new InputFile[issues];
+        componentKeys = new String[issues];
+        for (int i = 0; i < issues; i++) {
+            componentKeys[i] = BenchmarkData.issue(i, FILES).componentKey();
+            inputFiles[i] = files[i % FILES];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(gitBaseDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void getPath(Blackhole blackhole) {
+        for (InputFile inputFile : inputFiles) {
+            blackhole.consume(commitFacade.getPath(inputFile));
+        }
+    }
+
+    @Benchmark
+    public void pathByKey(Blackhole blackhole) {
+        for (String componentKey : componentKeys) {
+            blackhole.consume(inputFileCache.pathByKey(componentKey));
+        }
+    }
+
+}
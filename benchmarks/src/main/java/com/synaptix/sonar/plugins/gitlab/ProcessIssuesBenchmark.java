@@ -0,0 +1,199 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.gitlab.api.Pagination;
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.ProjectIssues;
+import org.sonar.api.resources.Project;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Classification of the new issues of a commit by {@link CommitIssuePostJob#processIssues}, with GitLab
+ * replayed by {@link ReplayTransport} from a generated recording of the project, its diff and its existing comments.
+ * The facade and the input file cache are set up through the plugin public API, as in an analysis. The parallelism
+ * shows how classification scales with the cores of the runner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessIssuesBenchmark {
+
+    private static final int FILES = 500;
+    private static final String MODULE_KEY = "component";
+
+    @Param({"1000", "10000", "100000"})
+    public int issues;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path gitBaseDir;
+    private GitLabPluginConfiguration config;
+    private MarkDownUtils markDownUtils;
+    private CommitIssuePostJob postJob;
+
+    @Setup
+    public void setUp() throws IOException {
+        gitBaseDir = Files.createTempDirectory("process-issues-benchmark");
+        Files.createDirectory(gitBaseDir.resolve(".git"));
+        Path replayFile = gitBaseDir.resolve("replay.jsonl");
+        writeRecording(replayFile);
+
+        Settings settings = new Settings();
+        settings.setProperty("sonar.host.url", "https://sonar.example.com");
+        settings.setProperty("sonar.gitlab.url", "https://gitlab.example.com");
+        settings.setProperty("sonar.gitlab.project_id", "1");
+        settings.setProperty("sonar.gitlab.commit_sha", BenchmarkData.COMMIT_SHA);
+        settings.setProperty("sonar.gitlab.max_global_issues", 10);
+        settings.setProperty("sonar.gitlab.classification_parallelism", parallelism);
+        settings.setProperty("sonar.gitlab.input_file_cache", "diff");
+        settings.setProperty("sonar.gitlab.replay_file", replayFile.toString());
+        config = new GitLabPluginConfiguration(settings);
+        markDownUtils = new MarkDownUtils(settings);
+
+        CommitFacade commitFacade = new CommitFacade(config, new GitLabMetrics());
+        commitFacade.init(gitBaseDir.toFile());
+        if (commitFacade.getChangedFiles().size() != FILES) {
+            throw new IllegalStateException("The replayed diff does not hold the " + FILES + " files");
+        }
+
+        // Single module at the Git root, whose files are all changed by the commit
+        DefaultFileSystem fs = new DefaultFileSystem(gitBaseDir);
+        for (int file = 0; file < FILES; file++) {
+            fs.add(new DefaultInputFile(MODULE_KEY, BenchmarkData.path(file)).setModuleBaseDir(gitBaseDir));
+        }
+        Project module = new Project(MODULE_KEY);
+        module.setEffectiveKey(MODULE_KEY);
+        InputFileCache inputFileCache = new InputFileCache();
+        // The diff mode does not need the sensor context
+        new InputFileCacheSensor(config, fs, inputFileCache, commitFacade).analyse(module, null);
+
+        List<Issue> projectIssues = new ArrayList<>(issues);
+        for (int i = 0; i < issues; i++) {
+            projectIssues.add(BenchmarkData.issue(i, FILES));
+        }
+        postJob = new CommitIssuePostJob(config, commitFacade, new ProjectIssues() {
+            @Override
+            public Iterable<Issue> issues() {
+                return projectIssues;
+            }
+
+            @Override
+            public Iterable<Issue> resolvedIssues() {
+                return Collections.emptyList();
+            }
+        }, inputFileCache, markDownUtils, new GitLabMetrics());
+    }
+
+    /**
+     * Exchanges of the bootstrap, as {@link RecordingTransport} writes them.
+     */
+    private static void writeRecording(Path replayFile) throws IOException {
+        Map<String, Object> project = new LinkedHashMap<>();
+        project.put("id", 1);
+        project.put("path_with_namespace", "group/project");
+        project.put("web_url", BenchmarkData.WEB_URL);
+        List<GitlabCommitDiff> diffs = new ArrayList<>(FILES);
+        for (int file = 0; file < FILES; file++) {
+            GitlabCommitDiff diff = new GitlabCommitDiff();
+            diff.setNewPath(BenchmarkData.path(file));
+            diff.setOldPath(diff.getNewPath());
+            diff.setDiff(BenchmarkData.patch(60));
+            diffs.add(diff);
+        }
+        String commitUrl = "/api/v3/projects/1/repository/commits/" + BenchmarkData.COMMIT_SHA;
+
+        ObjectMapper mapper = new ObjectMapper();
+        try (Writer writer = Files.newBufferedWriter(replayFile, StandardCharsets.UTF_8)) {
+            for (Map<String, Object> exchange : Arrays.asList(
+                    exchange("/api/v3/projects/1", mapper.writeValueAsString(project)),
+                    exchange(commitUrl + "/diff", mapper.writeValueAsString(diffs)),
+                    exchange(commitUrl + "/comments?per_page=" + Pagination.MAX_ITEMS_PER_PAGE + "&page=1", "[]"))) {
+                writer.write(mapper.writeValueAsString(exchange));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static Map<String, Object> exchange(String url, String body) {
+        Map<String, Object> exchange = new LinkedHashMap<>();
+        exchange.put("method", "GET");
+        exchange.put("url", url);
+        exchange.put("status", 200);
+        exchange.put("headers", Collections.singletonMap("Content-Type", "application/json"));
+        exchange.put("body", body);
+        exchange.put("millis", 0);
+        return exchange;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(gitBaseDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void processIssues(Blackhole blackhole) {
+        GlobalReport report = new GlobalReport(config, markDownUtils);
+        LongAdder comments = new LongAdder();
+        postJob.processIssues(report, comment -> comments.increment());
+        blackhole.consume(comments.sum());
+        blackhole.consume(report);
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Latency of a GitLab request over the loopback interface, to a local server answering the commit diff of
+ * {@code files} files. {@link UrlConnectionTransport} is compared with the same transport asking for the connection
+ * to be closed, and with the plain {@link HttpURLConnection} request made through the GitLab API library before it,
+ * without gzip.
+ * <p>
+ * The server delays the first request of each connection by {@code connectMillis}, standing for the TCP and TLS
+ * handshakes with a remote GitLab, 0 measuring the loopback alone. The loopback bandwidth being unlimited, gzip only
+ * shows its CPU cost here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    @Param({"1", "50"})
+    public int files;
+
+    @Param({"0", "20"})
+    public int connectMillis;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String url;
+    private UrlConnectionTransport transport;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<GitlabCommitDiff> diffs = new ArrayList<>(files);
+        for (int file = 0; file < files; file++) {
+            GitlabCommitDiff diff = new GitlabCommitDiff();
+            diff.setNewPath(BenchmarkData.path(file));
+            diff.setOldPath(diff.getNewPath());
+            diff.setDiff(BenchmarkData.patch(60));
+            diffs.add(diff);
+        }
+        byte[] body = new ObjectMapper().writeValueAsBytes(diffs);
+        byte[] gzipBody = gzip(body);
+
+        // Headers and body are written separately, Nagle's algorithm would hold the body until the client acknowledges
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            if (connectMillis > 0 && connections.add(exchange.getRemoteAddress())) {
+                sleep(connectMillis);
+            }
+            answer(exchange, body, gzipBody);
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + "/api/v3/projects/1/repository/commits/" + BenchmarkData.COMMIT_SHA + "/diff";
+        transport = new UrlConnectionTransport(TIMEOUT_MILLIS, TIMEOUT_MILLIS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * As the plugin sends requests: connections are reused and the response is gzip compressed.
+     */
+    @Benchmark
+    public String transport() throws IOException {
+        return transport.execute("GET", url, Collections.emptyMap(), null).getBody();
+    }
+
+    /**
+     * Same transport on a new connection for every request.
+     */
+    @Benchmark
+    public String transportWithoutKeepAlive() throws IOException {
+        return transport.execute("GET", url, Collections.singletonMap("Connection", "close"), null).getBody();
+    }
+
+    /**
+     * Request as made by the GitLab API library: no gzip, and the connection only goes back to the JDK cache when the
+     * response happens to be fully read.
+     */
+    @Benchmark
+    public String gitLabApiConnection() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("GET");
+        try (InputStream in = connection.getInputStream()) {
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void answer(HttpExchange exchange, byte[] body, byte[] gzipBody) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            readAll(in);
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] response = gzip ? gzipBody : body;
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static void sleep(int millis) throws IOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabProject;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of what the bootstrap gets from GitLab for a commit: the project and the changed lines. A commit never
+ * changes, so entries are reused without asking GitLab. Comments already on the commit are not cached, they do.
+ * The {@link BranchFingerprints} of branches are kept here too, they are rewritten by each analysis of the branch,
+ * and so are the final statuses of the analyses of a commit, which are coalesced into its status.
+ * <p>
+ * Entries are files named after a hash of the GitLab URL, the project and the commit, the least recently used ones
+ * are deleted when the directory grows over its maximum size. The cache is shared by concurrent analyses, entries
+ * are written to a temporary file first and moved in place. Any cache failure is logged and ignored.
+ */
+public class BootstrapCache {
+
+    public static final int DEFAULT_MAX_SIZE_MB = 100;
+
+    private static final Logger logger = Loggers.get(BootstrapCache.class.getName());
+    private static final int MAGIC = 0x474c4349;
+    private static final int VERSION = 1;
+    private static final String PROJECT_SUFFIX = ".project.json";
+    private static final String CHANGED_LINES_SUFFIX = ".lines";
+    private static final String FINGERPRINTS_SUFFIX = ".fingerprints";
+    private static final String STATUSES_SUFFIX = ".statuses.json";
+    private static final TypeReference<Map<String, CommitStatuses.Status>> STATUSES_TYPE = new TypeReference<Map<String, CommitStatuses.Status>>() {
+    };
+
+    private final Path dir;
+    private final long maxBytes;
+
+    public BootstrapCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    @CheckForNull
+    public GitlabProject getProject(String url, String projectId, String sha) {
+        Path entry = entry(PROJECT_SUFFIX, url, projectId, sha);
+        try (InputStream in = open(entry)) {
+            return in != null ? GitlabAPI.MAPPER.readValue(in, GitlabProject.class) : null;
+        } catch (IOException e) {
+            return discard(entry, e);
+        }
+    }
+
+    public void putProject(String url, String projectId, String sha, GitlabProject project) {
+        write(entry(PROJECT_SUFFIX, url, projectId, sha), out -> GitlabAPI.MAPPER.writeValue(out, project));
+    }
+
+    /**
+     * @param source where the diff comes from, diffs computed differently are not mixed
+     */
+    @CheckForNull
+    public ChangedLineIndex getChangedLines(String url, Integer projectId, String sha, String source) {
+        Path entry = entry(CHANGED_LINES_SUFFIX, url, String.valueOf(projectId), sha, source);
+        try (InputStream in = open(entry)) {
+            if (in == null) {
+                return null;
+            }
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Unknown format");
+            }
+            return ChangedLineIndex.readFrom(data);
+        } catch (IOException e) {
+            return discard(entry, e);
+        }
+    }
+
+    public void putChangedLines(String url, Integer projectId, String sha, String source, ChangedLineIndex changedLines) {
+        write(entry(CHANGED_LINES_SUFFIX, url, String.valueOf(projectId), sha, source), out -> {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            changedLines.writeTo(data);
+            data.flush();
+        });
+    }
+
+    @CheckForNull
+    public BranchFingerprints getFingerprints(String url, Integer projectId, String refName) {
+        Path entry = entry(FINGERPRINTS_SUFFIX, url, String.valueOf(projectId), refName);
+        try (InputStream in = open(entry)) {
+            if (in == null) {
+                return null;
+            }
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Unknown format");
+            }
+            return BranchFingerprints.readFrom(data);
+        } catch (IOException e) {
+            return discard(entry, e);
+        }
+    }
+
+    public void putFingerprints(String url, Integer projectId, String refName, BranchFingerprints fingerprints) {
+        write(entry(FINGERPRINTS_SUFFIX, url, String.valueOf(projectId), refName), out -> {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            fingerprints.writeTo(data);
+            data.flush();
+        });
+    }
+
+    /**
+     * @param name name of the commit status
+     * @return final status of each analysis of the commit, by SonarQube project key
+     */
+    @CheckForNull
+    public Map<String, CommitStatuses.Status> getStatuses(String url, Integer projectId, String sha, String name) {
+        Path entry = entry(STATUSES_SUFFIX, url, String.valueOf(projectId), sha, name);
+        try (InputStream in = open(entry)) {
+            return in != null ? GitlabAPI.MAPPER.readValue(in, STATUSES_TYPE) : null;
+        } catch (IOException e) {
+            return discard(entry, e);
+        }
+    }
+
+    public void putStatuses(String url, Integer projectId, String sha, String name, Map<String, CommitStatuses.Status> statuses) {
+        write(entry(STATUSES_SUFFIX, url, String.valueOf(projectId), sha, name), out -> GitlabAPI.MAPPER.writeValue(out, statuses));
+    }
+
+    @CheckForNull
+    private InputStream open(Path entry) throws IOException {
+        try {
+            InputStream in = new BufferedInputStream(Files.newInputStream(entry));
+            touch(entry);
+            return in;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void write(Path entry, Writer writer) {
+        Path temp = null;
+        try {
+            Files.createDirectories(dir);
+            temp = Files.createTempFile(dir, "entry", ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                writer.write(out);
+            }
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            evict();
+        } catch (IOException e) {
+            logger.warn("Unable to write GitLab cache entry " + entry + ": " + e.getMessage());
+            deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the directory fits in its maximum size.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(BootstrapCache::isEntry).forEach(entries::add);
+        }
+        long size = 0;
+        List<EntryInfo> infos = new ArrayList<>();
+        for (Path entry : entries) {
+            try {
+                EntryInfo info = new EntryInfo(entry, Files.size(entry), Files.getLastModifiedTime(entry).toMillis());
+                infos.add(info);
+                size += info.size;
+            } catch (NoSuchFileException e) {
+                // Evicted by another analysis
+            }
+        }
+        infos.sort(Comparator.comparingLong(info -> info.lastUsed));
+        for (EntryInfo info : infos) {
+            if (size <= maxBytes) {
+                break;
+            }
+            deleteQuietly(info.path);
+            size -= info.size;
+        }
+    }
+
+    private static boolean isEntry(Path file) {
+        String name = file.toString();
+        return name.endsWith(PROJECT_SUFFIX) || name.endsWith(CHANGED_LINES_SUFFIX) || name.endsWith(FINGERPRINTS_SUFFIX)
+                || name.endsWith(STATUSES_SUFFIX);
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only makes the entry look older to the eviction
+        }
+    }
+
+    private static <T> T discard(Path entry, IOException cause) {
+        logger.warn("Ignoring unreadable GitLab cache entry " + entry + ": " + cause.getMessage());
+        deleteQuietly(entry);
+        return null;
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.debug("Unable to delete " + file, e);
+            }
+        }
+    }
+
+    private Path entry(String suffix, String... key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : key) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest()) {
+                name.append(String.format("%02x", b));
+            }
+            return dir.resolve(name.append(suffix).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static final class EntryInfo {
+
+        private final Path path;
+        private final long size;
+        private final long lastUsed;
+
+        private EntryInfo(Path path, long size, long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Issues already commented on earlier commits of a branch, so that pushing again does not post them again.
+ * <p>
+ * An issue is identified by a 64-bit fingerprint of its rule, path, message and the trimmed content of its line, which
+ * survives lines moving up or down. Each fingerprint keeps the commit and line where it was commented. Only the
+ * fingerprints still found in the current analysis are kept for the next one, so the store stays as small as the
+ * branch's open issues.
+ */
+public class BranchFingerprints {
+
+    private final Map<Long, Reported> previous;
+    private final Map<Long, Reported> next = new ConcurrentHashMap<>();
+    // Fingerprints waiting for the inline comment of their line to be published
+    private final Map<String, List<Long>> pending = new ConcurrentHashMap<>();
+
+    public BranchFingerprints() {
+        this(Collections.emptyMap());
+    }
+
+    private BranchFingerprints(Map<Long, Reported> previous) {
+        this.previous = previous;
+    }
+
+    public static long fingerprint(String ruleKey, String path, @Nullable String message, @Nullable String lineContent) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{ruleKey, path, message == null ? "" : message, lineContent == null ? "" : lineContent.trim()}) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    /**
+     * Where the issue was commented by an earlier analysis of the branch, the issue is kept for the next analyses.
+     *
+     * @param fingerprint
+     * @return
+     */
+    @CheckForNull
+    public Reported seen(long fingerprint) {
+        Reported reported = previous.get(fingerprint);
+        if (reported != null) {
+            next.put(fingerprint, reported);
+        }
+        return reported;
+    }
+
+    /**
+     * Remember an issue once the inline comment of its line is {@link #published(String, int, String)}.
+     *
+     * @param path
+     * @param line
+     * @param fingerprint
+     */
+    public void commenting(String path, int line, long fingerprint) {
+        pending.computeIfAbsent(path + ':' + line, key -> new CopyOnWriteArrayList<>()).add(fingerprint);
+    }
+
+    public void published(String path, int line, String sha) {
+        List<Long> fingerprints = pending.remove(path + ':' + line);
+        if (fingerprints != null) {
+            Reported reported = new Reported(sha, line);
+            fingerprints.forEach(fingerprint -> next.put(fingerprint, reported));
+        }
+    }
+
+    public int size() {
+        return next.size();
+    }
+
+    /**
+     * Write the fingerprints for the next analysis of the branch.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        Map<Long, Reported> entries = new HashMap<>(next);
+        out.writeInt(entries.size());
+        for (Map.Entry<Long, Reported> entry : entries.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeUTF(entry.getValue().sha);
+            out.writeInt(entry.getValue().line);
+        }
+    }
+
+    public static BranchFingerprints readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid fingerprint count " + size);
+        }
+        Map<Long, Reported> previous = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            long fingerprint = in.readLong();
+            previous.put(fingerprint, new Reported(in.readUTF(), in.readInt()));
+        }
+        return new BranchFingerprints(previous);
+    }
+
+    public static final class Reported {
+
+        private final String sha;
+        private final int line;
+
+        public Reported(String sha, int line) {
+            this.sha = sha;
+            this.line = line;
+        }
+
+        public String getSha() {
+            return sha;
+        }
+
+        public int getLine() {
+            return line;
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of the lines displayed in a diff, per file path.
+ * <p>
+ * Paths are kept in one sorted table and each file's lines as sorted, non overlapping {@code [first, last]} pairs in
+ * a single {@code int[]}, so a lookup is two binary searches and no boxing.
+ */
+public final class ChangedLineIndex {
+
+    private static final int[] NO_RANGES = new int[0];
+
+    private final String[] paths;
+    private final int[][] ranges;
+
+    private ChangedLineIndex(String[] paths, int[][] ranges) {
+        this.paths = paths;
+        this.ranges = ranges;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Position of the path in the path table, or a negative value if the diff does not contain it.
+     *
+     * @param path
+     * @return
+     */
+    public int fileIndex(String path) {
+        return path == null ? -1 : Arrays.binarySearch(paths, path);
+    }
+
+    public boolean hasFile(String path) {
+        return fileIndex(path) >= 0;
+    }
+
+    public boolean hasLine(String path, int line) {
+        return hasLine(fileIndex(path), line);
+    }
+
+    public boolean hasLine(int fileIndex, int line) {
+        if (fileIndex < 0) {
+            return false;
+        }
+        int[] fileRanges = ranges[fileIndex];
+        int low = 0;
+        int high = fileRanges.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (line < fileRanges[2 * mid]) {
+                high = mid - 1;
+            } else if (line > fileRanges[2 * mid + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Paths of the files in the diff, sorted.
+     *
+     * @return
+     */
+    public List<String> files() {
+        return Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+    public int fileCount() {
+        return paths.length;
+    }
+
+    public int rangeCount() {
+        int count = 0;
+        for (int[] fileRanges : ranges) {
+            count += fileRanges.length / 2;
+        }
+        return count;
+    }
+
+    /**
+     * Approximate heap used by the index, assuming compressed references: 16 bytes per array header, 4 bytes per
+     * reference or int and 40 bytes plus 2 bytes per char for each path.
+     *
+     * @return
+     */
+    public long retainedBytes() {
+        long bytes = 16L + 2 * (16L + 4L * paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            bytes += 40L + 2L * paths[i].length();
+            bytes += ranges[i].length == 0 ? 0 : 16L + 4L * ranges[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the index in a compact binary form, read back by {@link #readFrom(DataInput)}.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            out.writeUTF(paths[i]);
+            out.writeInt(ranges[i].length);
+            for (int value : ranges[i]) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    public static ChangedLineIndex readFrom(DataInput in) throws IOException {
+        int fileCount = in.readInt();
+        String[] paths = new String[fileCount];
+        int[][] ranges = new int[fileCount][];
+        for (int i = 0; i < fileCount; i++) {
+            paths[i] = in.readUTF();
+            if (i > 0 && paths[i].compareTo(paths[i - 1]) <= 0) {
+                throw new IOException("Paths of the changed line index are not sorted");
+            }
+            int length = in.readInt();
+            ranges[i] = length == 0 ? NO_RANGES : new int[length];
+            for (int j = 0; j < length; j++) {
+                ranges[i][j] = in.readInt();
+            }
+        }
+        return new ChangedLineIndex(paths, ranges);
+    }
+
+    @Override
+    public String toString() {
+        return fileCount() + " files, " + rangeCount() + " line ranges, ~" + retainedBytes() + " bytes";
+    }
+
+    /**
+     * Collects ranges file by file, in any order, before sorting and merging them into an index.
+     */
+    public static final class Builder {
+
+        private final Map<String, RangeBuffer> rangesByPath = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Register the file, even when no line of it is displayed, and get a consumer for its line ranges.
+         *
+         * @param path
+         * @return
+         */
+        public PatchParser.LineRangeConsumer file(String path) {
+            return rangesByPath.computeIfAbsent(path, p -> new RangeBuffer());
+        }
+
+        public Builder addRange(String path, int firstLine, int lastLine) {
+            file(path).accept(firstLine, lastLine);
+            return this;
+        }
+
+        public ChangedLineIndex build() {
+            String[] paths = rangesByPath.keySet().toArray(new String[rangesByPath.size()]);
+            Arrays.sort(paths);
+            int[][] ranges = new int[paths.length][];
+            for (int i = 0; i < paths.length; i++) {
+                ranges[i] = rangesByPath.get(paths[i]).toSortedRanges();
+            }
+            return new ChangedLineIndex(paths, ranges);
+        }
+    }
+
+    private static final class RangeBuffer implements PatchParser.LineRangeConsumer {
+
+        private int[] values = NO_RANGES;
+        private int size;
+        private boolean sorted = true;
+
+        @Override
+        public void accept(int firstLine, int lastLine) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(8, size * 2));
+            }
+            if (size > 0 && firstLine < values[size - 2]) {
+                sorted = false;
+            }
+            values[size++] = firstLine;
+            values[size++] = lastLine;
+        }
+
+        private int[] toSortedRanges() {
+            if (size == 0) {
+                return NO_RANGES;
+            }
+            if (!sorted) {
+                sortPairs();
+            }
+            int merged = 0;
+            for (int i = 0; i < size; i += 2) {
+                if (merged > 0 && values[i] <= values[merged - 1] + 1) {
+                    values[merged - 1] = Math.max(values[merged - 1], values[i + 1]);
+                } else {
+                    values[merged++] = values[i];
+                    values[merged++] = values[i + 1];
+                }
+            }
+            return Arrays.copyOf(values, merged);
+        }
+
+        private void sortPairs() {
+            long[] packed = new long[size / 2];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = ((long) values[2 * i] << 32) | (values[2 * i + 1] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < packed.length; i++) {
+                values[2 * i] = (int) (packed[i] >> 32);
+                values[2 * i + 1] = (int) packed[i];
+            }
+        }
+    }
+
+}
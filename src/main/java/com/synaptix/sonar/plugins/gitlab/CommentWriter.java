@@ -0,0 +1,101 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.function.Consumer;
+
+/**
+ * Builds a comment body that stays under a size limit, GitLab rejects notes that are too large.
+ * <p>
+ * The body is made of text that is always kept, like headers, and of entries that are dropped once the limit is
+ * reached. Dropped entries are only counted, so the caller can end the body with a "... N more" line, room for that
+ * line is always left.
+ */
+public class CommentWriter {
+
+    public static final int DEFAULT_MAX_BYTES = 1_000_000;
+
+    // Room for a "* ... 2147483647 more" line
+    private static final int MORE_LINE_BYTES = 32;
+
+    private final int maxBytes;
+    private final StringBuilder sb = new StringBuilder();
+    private int bytes;
+    private int omitted;
+
+    public CommentWriter(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Append text that must be in the comment whatever its size.
+     *
+     * @param text
+     * @return
+     */
+    public CommentWriter append(CharSequence text) {
+        int start = sb.length();
+        sb.append(text);
+        bytes += Utf8.length(sb, start);
+        return this;
+    }
+
+    /**
+     * Append an entry rendered by the given function if it fits, once an entry has been dropped the following ones
+     * are dropped too so that the kept entries are always the first ones.
+     *
+     * @param entry
+     * @return true if the entry was kept
+     */
+    public boolean appendEntry(Consumer<StringBuilder> entry) {
+        if (omitted == 0) {
+            int start = sb.length();
+            entry.accept(sb);
+            int entryBytes = Utf8.length(sb, start);
+            if (bytes + entryBytes + MORE_LINE_BYTES <= maxBytes) {
+                bytes += entryBytes;
+                return true;
+            }
+            sb.setLength(start);
+        }
+        omitted++;
+        return false;
+    }
+
+    /**
+     * @return number of entries dropped because of the size limit
+     */
+    public int getOmitted() {
+        return omitted;
+    }
+
+    /**
+     * @return size of the body in bytes once encoded in UTF-8
+     */
+    public int size() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.models.CommitComment;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Comments already present on the commit, keyed by path, line and a hash of the body.
+ * <p>
+ * Bodies are compared after trimming, since GitLab does not keep trailing blank lines.
+ */
+public class CommitCommentIndex {
+
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+
+    public void add(CommitComment comment) {
+        add(comment.getPath(), comment.getLine() == null || comment.getLine().isEmpty() ? null : Integer.valueOf(comment.getLine()), comment.getNote());
+    }
+
+    public void add(@Nullable String path, @Nullable Integer line, String body) {
+        keys.add(key(path, line, body));
+    }
+
+    /**
+     * Tells if the same comment is already on the commit. Global comments have no path and no line.
+     *
+     * @param path
+     * @param line
+     * @param body
+     * @return
+     */
+    public boolean contains(@Nullable String path, @Nullable Integer line, String body) {
+        return keys.contains(key(path, line, body));
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private static String key(@Nullable String path, @Nullable Integer line, @Nullable String body) {
+        return (path == null ? "" : path) + '\n' + (line == null ? "" : line) + '\n' + hash(body == null ? "" : body.trim());
+    }
+
+    private static String hash(String body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+}
@@ -19,9 +19,10 @@
  */
 package com.synaptix.sonar.plugins.gitlab;
 
-import org.apache.commons.io.IOUtils;
-import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.Pagination;
+import org.gitlab.api.models.CommitComment;
 import org.gitlab.api.models.GitlabCommitDiff;
+import org.gitlab.api.models.GitlabCommitStatus;
 import org.gitlab.api.models.GitlabProject;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.InstantiationStrategy;
@@ -31,13 +32,23 @@ import org.sonar.api.scan.filesystem.PathResolver;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Facade for all WS interaction with GitLab.
@@ -47,67 +58,222 @@ import java.util.regex.Pattern;
 public class CommitFacade {
 
     private static final Logger logger = Loggers.get(CommitFacade.class.getName());
+    // Name GitLab gives to statuses created without one
+    private static final String DEFAULT_STATUS_NAME = "default";
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gitlab-bootstrap");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final GitLabPluginConfiguration config;
+    private final GitLabMetrics metrics;
+    private final PathResolver pathResolver = new PathResolver();
+    private final AtomicBoolean bootstrapReported = new AtomicBoolean();
+    private final CommitStatuses statuses = new CommitStatuses();
     private File gitBaseDir;
-    private GitlabAPI gitLabAPI;
+    private GitLabHttpClient httpClient;
+    private GitLabHttpClient httpClientV4;
+    private MergeRequest mergeRequest;
+    private BootstrapCache cache;
     private GitlabProject gitLabProject;
-    private Map<String, Set<Integer>> patchPositionMappingByFile;
+    private CommitCommentIndex existingComments;
+    private ChangedLineIndex changedLines;
+    private CompletableFuture<Void> bootstrap;
+    private volatile CompletableFuture<Void> statusUpdate;
+    private long bootstrapStart;
+    private volatile long bootstrapEnd;
 
-    public CommitFacade(GitLabPluginConfiguration config) {
+    public CommitFacade(GitLabPluginConfiguration config, GitLabMetrics metrics) {
         this.config = config;
+        this.metrics = metrics;
     }
 
-    private static Map<String, Set<Integer>> mapPatchPositionsToLines(List<GitlabCommitDiff> diffs) throws IOException {
-        Map<String, Set<Integer>> patchPositionMappingByFile = new HashMap<>();
+    static ChangedLineIndex mapPatchPositionsToLines(List<GitlabCommitDiff> diffs) {
+        ChangedLineIndex.Builder builder = ChangedLineIndex.builder();
         for (GitlabCommitDiff file : diffs) {
-            Set<Integer> patchLocationMapping = new HashSet<>();
-            patchPositionMappingByFile.put(file.getNewPath(), patchLocationMapping);
+            PatchParser.LineRangeConsumer fileLines = builder.file(file.getNewPath());
             String patch = file.getDiff();
-            if (patch == null) {
-                continue;
+            if (patch != null) {
+                PatchParser.parse(patch, fileLines);
             }
-            processPatch(patchLocationMapping, patch);
         }
-        return patchPositionMappingByFile;
+        return builder.build();
     }
 
-    private static void processPatch(Set<Integer> patchLocationMapping, String patch) throws IOException {
-        int currentLine = -1;
-        for (String line : IOUtils.readLines(new StringReader(patch))) {
-            if (line.startsWith("@")) {
-                // http://en.wikipedia.org/wiki/Diff_utility#Unified_format
-                Matcher matcher = Pattern.compile("@@\\p{Space}-[0-9]+(?:,[0-9]+)?\\p{Space}\\+([0-9]+)(?:,[0-9]+)?\\p{Space}@@.*").matcher(line);
-                if (!matcher.matches()) {
-                    throw new IllegalStateException("Unable to parse patch line " + line + "\nFull patch: \n" + patch);
+    /**
+     * Check the Git repository and start talking to GitLab in the background, so that the project lookup and the diff
+     * download overlap with the analysis. Methods needing them wait for the bootstrap to complete.
+     *
+     * @param projectBaseDir
+     */
+    public void init(File projectBaseDir) {
+        if (findGitBaseDir(projectBaseDir) == null) {
+            throw new IllegalStateException("Unable to find Git root directory. Is " + projectBaseDir + " part of a Git repository?");
+        }
+        GitLabTransport transport = createTransport();
+        httpClient = new GitLabHttpClient(config.url(), config.userToken(), transport, GitLabHttpClient.API_V3, metrics);
+        httpClientV4 = new GitLabHttpClient(config.url(), config.userToken(), transport, GitLabHttpClient.API_V4, metrics);
+        bootstrapStart = System.currentTimeMillis();
+        bootstrap = CompletableFuture.runAsync(this::bootstrap, executor);
+        statusUpdate = bootstrap;
+    }
+
+    private GitLabTransport createTransport() {
+        try {
+            GitLabTransport transport = config.replayFile() != null ? ReplayTransport.load(Paths.get(config.replayFile()), config.replayLatencyFactor())
+                    : new UrlConnectionTransport(config.connectTimeoutMillis(), config.readTimeoutMillis());
+            if (config.recordFile() != null) {
+                transport = new RecordingTransport(transport, Paths.get(config.recordFile()));
+            }
+            if (config.dryRunFile() != null) {
+                logger.info("Dry run, comments and statuses are written to {} instead of GitLab", config.dryRunFile());
+                transport = new DryRunTransport(transport, Paths.get(config.dryRunFile()));
+            }
+            return transport;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to set up the GitLab transport: " + e.getMessage(), e);
+        }
+    }
+
+    private void bootstrap() {
+        try {
+            cache = config.cacheDir() != null ? new BootstrapCache(Paths.get(config.cacheDir()), config.cacheMaxBytes()) : null;
+
+            try (GitLabMetrics.Timer ignored = metrics.phase("bootstrap.project")) {
+                gitLabProject = cache != null ? cache.getProject(config.url(), config.projectId(), config.commitSHA()) : null;
+                if (gitLabProject == null) {
+                    gitLabProject = getGitLabProject();
+                    if (cache != null) {
+                        cache.putProject(config.url(), config.projectId(), config.commitSHA(), gitLabProject);
+                    }
                 }
-                currentLine = Integer.parseInt(matcher.group(1));
-            } else if (line.startsWith("-")) {
-                // Skip removed lines
-            } else if (line.startsWith("+") || line.startsWith(" ")) {
-                // Count added and unmodified lines
-                patchLocationMapping.add(currentLine);
-                currentLine++;
-            } else if (line.startsWith("\\")) {
-                // I'm only aware of \ No newline at end of file
-                // Ignore
             }
+
+            try (GitLabMetrics.Timer ignored = metrics.phase("bootstrap.diff")) {
+                mergeRequest = config.mergeRequestIid() != null ? loadMergeRequest(config.mergeRequestIid()) : null;
+                changedLines = mergeRequest != null ? mergeRequest.getChangedLines() : loadCommitChangedLines(cache);
+            }
+            try (GitLabMetrics.Timer ignored = metrics.phase("bootstrap.existing_comments")) {
+                existingComments = mergeRequest != null ? mergeRequest.loadExistingComments() : loadExistingComments();
+            }
+            logger.debug("Changed lines of commit {}: {}", config.commitSHA(), changedLines);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to perform GitLab WS operation", e);
+        } finally {
+            bootstrapEnd = System.currentTimeMillis();
+            metrics.addPhase("bootstrap", TimeUnit.MILLISECONDS.toNanos(bootstrapEnd - bootstrapStart));
         }
     }
 
-    public void init(File projectBaseDir) {
-        if (findGitBaseDir(projectBaseDir) == null) {
-            throw new IllegalStateException("Unable to find Git root directory. Is " + projectBaseDir + " part of a Git repository?");
+    private void awaitBootstrap() {
+        awaitBootstrap(Long.MAX_VALUE);
+    }
+
+    /**
+     * Stop waiting for the GitLab rate limit to reset past the deadline, so that the publish timeout is kept.
+     *
+     * @param deadline time in milliseconds since the epoch
+     */
+    public void setPublishDeadline(long deadline) {
+        if (httpClient == null) {
+            throw new IllegalStateException("GitLab commit facade is not initialised");
         }
-        gitLabAPI = GitlabAPI.connect(config.url(), config.userToken());
+        httpClient.setDeadline(deadline);
+        httpClientV4.setDeadline(deadline);
+    }
+
+    /**
+     * Wait for the bootstrap to complete, at most until the deadline.
+     *
+     * @param deadline time in milliseconds since the epoch
+     * @return false if the bootstrap is still running at the deadline
+     */
+    public boolean awaitBootstrap(long deadline) {
+        if (bootstrap == null) {
+            throw new IllegalStateException("GitLab commit facade is not initialised");
+        }
+        long waitStart = System.currentTimeMillis();
         try {
-            gitLabProject = getGitLabProject();
+            if (deadline == Long.MAX_VALUE) {
+                bootstrap.join();
+            } else {
+                bootstrap.get(Math.max(0, deadline - waitStart), TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the GitLab bootstrap", e);
+        } catch (CompletionException | ExecutionException e) {
+            throw new IllegalStateException("GitLab bootstrap failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            if (bootstrap.isDone() && bootstrapReported.compareAndSet(false, true)) {
+                long waited = System.currentTimeMillis() - waitStart;
+                long took = bootstrapEnd - bootstrapStart;
+                logger.info("GitLab bootstrap took {} ms, {} ms of it overlapped with the analysis", took, Math.max(0, took - waited));
+                metrics.addPhase("bootstrap.wait", TimeUnit.MILLISECONDS.toNanos(waited));
+            }
+        }
+    }
+
+    /**
+     * The merge request diff is only used when the analysed commit is its head, otherwise lines would not match.
+     */
+    @CheckForNull
+    private MergeRequest loadMergeRequest(String iid) throws IOException {
+        MergeRequest loaded = MergeRequest.load(httpClientV4, gitLabProject.getId(), iid);
+        if (!config.commitSHA().equals(loaded.getHeadSha())) {
+            logger.warn("Head of merge request !{} is {}, not the analysed commit {}, only the commit is reviewed", iid, loaded.getHeadSha(), config.commitSHA());
+            return null;
+        }
+        logger.info("Reviewing merge request !{}", iid);
+        return loaded;
+    }
 
-            patchPositionMappingByFile = mapPatchPositionsToLines(gitLabAPI.getCommitDiffs(gitLabProject.getId(), config.commitSHA()));
+    private ChangedLineIndex loadCommitChangedLines(@Nullable BootstrapCache cache) throws IOException {
+        String diffSource = config.localDiff() ? GitLabPlugin.DIFF_SOURCE_LOCAL : GitLabPlugin.DIFF_SOURCE_API;
+        ChangedLineIndex cached = cache != null ? cache.getChangedLines(config.url(), gitLabProject.getId(), config.commitSHA(), diffSource) : null;
+        if (cached != null) {
+            logger.debug("Changed lines of commit {} read from the cache", config.commitSHA());
+            return cached;
+        }
+        ChangedLineIndex loaded = config.localDiff() ? loadLocalChangedLines() : loadChangedLines();
+        if (cache != null) {
+            cache.putChangedLines(config.url(), gitLabProject.getId(), config.commitSHA(), diffSource, loaded);
+        }
+        return loaded;
+    }
+
+    private ChangedLineIndex loadChangedLines() throws IOException {
+        return mapPatchPositionsToLines(Arrays.asList(httpClient.get(commitUrl() + "/diff", GitlabCommitDiff[].class)));
+    }
+
+    private ChangedLineIndex loadLocalChangedLines() throws IOException {
+        try {
+            return new LocalGitDiff(gitBaseDir).changedLines(config.commitSHA());
         } catch (IOException e) {
-            throw new IllegalStateException("Unable to perform GitLab WS operation", e);
+            logger.warn("Unable to compute the diff of commit {} locally, asking GitLab instead: {}", config.commitSHA(), e.getMessage());
+            return loadChangedLines();
         }
     }
 
+    private CommitCommentIndex loadExistingComments() throws IOException {
+        CommitCommentIndex index = new CommitCommentIndex();
+        for (int page = 1; ; page++) {
+            CommitComment[] comments = httpClient.get(
+                    commitUrl() + "/comments?per_page=" + Pagination.MAX_ITEMS_PER_PAGE + "&page=" + page, CommitComment[].class);
+            for (CommitComment comment : comments) {
+                index.add(comment);
+            }
+            if (comments.length < Pagination.MAX_ITEMS_PER_PAGE) {
+                break;
+            }
+        }
+        logger.debug("{} comment(s) already on commit {}", index.size(), config.commitSHA());
+        return index;
+    }
+
     private File findGitBaseDir(@Nullable File baseDir) {
         if (baseDir == null) {
             return null;
@@ -123,69 +289,325 @@ public class CommitFacade {
         if (config.projectId() == null) {
             throw new IllegalStateException("Missing required attribute: " + GitLabPlugin.GITLAB_PROJECT_ID);
         }
-        List<GitlabProject> projects = gitLabAPI.getProjects();
-        if (projects == null) {
-            throw new IllegalStateException("Unable to find projects under this location: " + config.url());
+        return new GitLabProjectResolver(httpClient, config.url()).resolve(config.projectId());
+    }
+
+    /**
+     * Set the commit status once the bootstrap is done, without waiting for it. Statuses are sent in the order they
+     * are asked.
+     *
+     * @param status
+     * @param statusDescription
+     * @return
+     */
+    public CompletableFuture<Void> createOrUpdateSonarQubeStatusAsync(String status, String statusDescription) {
+        if (bootstrap == null) {
+            throw new IllegalStateException("GitLab commit facade is not initialised");
         }
-        List<GitlabProject> res = new ArrayList<>();
-        for (GitlabProject project : projects) {
-            if (config.projectId().equals(project.getId().toString()) || config.projectId().equals(project.getPathWithNamespace()) || config.projectId().equals(project.getHttpUrl())
-                    || config.projectId().equals(project.getSshUrl()) || config.projectId().equals(project.getWebUrl()) || config.projectId().equals(project.getNameWithNamespace())) {
-                logger.debug("found matching project with project id: {}", project.getId());
-                res.add(project);
+        CompletableFuture<Void> update = queueStatus(status, statusDescription);
+        update.whenComplete((ignored, e) -> {
+            if (e != null && !bootstrap.isCompletedExceptionally()) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                logger.warn("Unable to set commit status to " + status + ": " + cause.getMessage());
             }
+        });
+        return update;
+    }
+
+    /**
+     * Status updates run one after the other on the bootstrap thread. They are chained to the previous update rather
+     * than to the bootstrap, whose dependents are not run in the order they were added.
+     */
+    private CompletableFuture<Void> queueStatus(String status, String statusDescription) {
+        CompletableFuture<Void> update = statusUpdate.exceptionally(e -> null)
+                .thenCompose(ignored -> bootstrap)
+                .thenRunAsync(() -> sendStatus(status, statusDescription), executor);
+        statusUpdate = update;
+        return update;
+    }
+
+    /**
+     * Set the commit status once the previous status updates are done. A final status is coalesced with the ones
+     * already reported by this analysis and, when the cache is enabled, by the other analyses of the commit.
+     *
+     * @param status
+     * @param statusDescription
+     */
+    public void createOrUpdateSonarQubeStatus(String status, String statusDescription) {
+        awaitBootstrap();
+        try {
+            statusUpdate.join();
+        } catch (CompletionException e) {
+            // Already logged, the final status is more important
         }
-        if (res.isEmpty()) {
-            throw new IllegalStateException("Unable found project for " + config.projectId());
+        sendStatus(status, statusDescription);
+    }
+
+    /**
+     * Same as {@link #createOrUpdateSonarQubeStatus(String, String)}, waiting for the bootstrap, the previous status
+     * updates and this one at most until the deadline. The update is left to complete in the background after it.
+     *
+     * @param status
+     * @param statusDescription
+     * @param deadline time in milliseconds since the epoch
+     * @return false if the status was not updated before the deadline
+     */
+    public boolean createOrUpdateSonarQubeStatus(String status, String statusDescription, long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            createOrUpdateSonarQubeStatus(status, statusDescription);
+            return true;
         }
-        if (res.size() > 1) {
-            throw new IllegalStateException("Multiple found projects for " + config.projectId());
+        if (bootstrap == null) {
+            throw new IllegalStateException("GitLab commit facade is not initialised");
+        }
+        CompletableFuture<Void> update = queueStatus(status, statusDescription);
+        try {
+            update.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            logger.warn("Commit status not set to {} before the publish timeout, it is left to GitLab to accept it later", status);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while updating the commit status", e);
+        } catch (ExecutionException e) {
+            if (bootstrap.isCompletedExceptionally()) {
+                throw new IllegalStateException("GitLab bootstrap failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
         }
-        return res.get(0);
     }
 
-    public void createOrUpdateSonarQubeStatus(String status, String statusDescription) {
+    private void sendStatus(String state, String statusDescription) {
+        CommitStatuses.Status status = new CommitStatuses.Status(state, statusDescription);
+        if (CommitStatuses.isFinal(state)) {
+            status = coalesceFinalStatus(status);
+        }
+        if (!statuses.isFetched()) {
+            statuses.fetched(loadCurrentStatus());
+        }
+        if (statuses.isCurrent(status)) {
+            logger.debug("Commit status is already {}, not updated", status);
+            metrics.count("statuses_unchanged", 1);
+            return;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("state", status.getState());
+        putIfNotNull(data, "ref", config.refName());
+        putIfNotNull(data, "name", config.customBuilderName());
+        putIfNotNull(data, "description", status.getDescription());
         try {
-            gitLabAPI.createCommitStatus(gitLabProject, config.commitSHA(), status, config.refName(),
-                    config.customBuilderName(), null, statusDescription);
+            httpClient.post(GitlabProject.URL + "/" + gitLabProject.getId() + "/statuses/" + config.commitSHA(), data);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to update commit status", e);
         }
+        statuses.sent(status);
+    }
+
+    private CommitStatuses.Status coalesceFinalStatus(CommitStatuses.Status status) {
+        CommitStatuses.Status analysisFinal = statuses.analysisFinal(status);
+        if (cache == null) {
+            return analysisFinal;
+        }
+        Map<String, CommitStatuses.Status> byAnalysis = cache.getStatuses(config.url(), gitLabProject.getId(), config.commitSHA(), statusName());
+        byAnalysis = byAnalysis != null ? new TreeMap<>(byAnalysis) : new TreeMap<>();
+        byAnalysis.put(config.sonarProjectKey(), analysisFinal);
+        cache.putStatuses(config.url(), gitLabProject.getId(), config.commitSHA(), statusName(), byAnalysis);
+        return CommitStatuses.coalesce(byAnalysis);
+    }
+
+    /**
+     * @return latest status of the commit with the name of this builder, null if none or if it cannot be read
+     */
+    @CheckForNull
+    private CommitStatuses.Status loadCurrentStatus() {
+        try {
+            StringBuilder url = new StringBuilder(commitUrl()).append("/statuses?name=").append(encode(statusName()));
+            if (config.refName() != null) {
+                url.append("&ref=").append(encode(config.refName()));
+            }
+            GitlabCommitStatus latest = null;
+            for (GitlabCommitStatus found : httpClient.get(url.toString(), GitlabCommitStatus[].class)) {
+                if (latest == null || Long.parseLong(found.getId()) > Long.parseLong(latest.getId())) {
+                    latest = found;
+                }
+            }
+            return latest != null ? new CommitStatuses.Status(latest.getStatus(), latest.getDescription()) : null;
+        } catch (IOException | NumberFormatException e) {
+            logger.debug("Unable to get the statuses of commit " + config.commitSHA() + ", status updates are always sent", e);
+            return null;
+        }
+    }
+
+    private String statusName() {
+        return config.customBuilderName() != null ? config.customBuilderName() : DEFAULT_STATUS_NAME;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    }
+
+    private static void putIfNotNull(Map<String, Object> data, String key, @Nullable Object value) {
+        if (value != null) {
+            data.put(key, value);
+        }
     }
 
     public boolean hasFile(InputFile inputFile) {
-        return patchPositionMappingByFile.containsKey(getPath(inputFile));
+        return hasFile(getPath(inputFile));
+    }
+
+    public boolean hasFile(@Nullable String path) {
+        awaitBootstrap();
+        return changedLines.hasFile(path);
     }
 
     public boolean hasFileLine(InputFile inputFile, int line) {
-        return hasFile(inputFile) && patchPositionMappingByFile.get(getPath(inputFile)).contains(line);
+        return hasFileLine(getPath(inputFile), line);
+    }
+
+    public boolean hasFileLine(@Nullable String path, int line) {
+        awaitBootstrap();
+        return changedLines.hasLine(path, line);
     }
 
     public String getGitLabUrl(InputFile inputFile, Integer issueLine) {
-        if (inputFile != null) {
-            String path = getPath(inputFile);
+        return inputFile != null ? getGitLabUrl(getPath(inputFile), issueLine) : null;
+    }
+
+    public String getGitLabUrl(@Nullable String path, Integer issueLine) {
+        if (path != null) {
+            awaitBootstrap();
             return gitLabProject.getWebUrl() + "/blob/" + config.commitSHA() + "/" + path + (issueLine != null ? ("#L" + issueLine) : "");
         }
         return null;
     }
 
-    public void createOrUpdateReviewComment(InputFile inputFile, Integer line, String body) {
-        String fullpath = getPath(inputFile);
+    /**
+     * Page of an earlier commit of the project, showing its comments.
+     *
+     * @param sha
+     * @return
+     */
+    public String getCommitUrl(String sha) {
+        awaitBootstrap();
+        return gitLabProject.getWebUrl() + "/commit/" + sha;
+    }
 
+    /**
+     * Issues commented by earlier analyses of the branch, empty the first time.
+     *
+     * @return null when the branch or the cache directory is unknown
+     */
+    @CheckForNull
+    public BranchFingerprints loadBranchFingerprints() {
+        if (config.refName() == null || config.cacheDir() == null) {
+            logger.warn("Issues reported on earlier commits are only recognised with both {} and {} set", GitLabPlugin.GITLAB_REF_NAME, GitLabPlugin.GITLAB_CACHE_DIR);
+            return null;
+        }
+        awaitBootstrap();
+        BranchFingerprints fingerprints = cache.getFingerprints(config.url(), gitLabProject.getId(), config.refName());
+        return fingerprints != null ? fingerprints : new BranchFingerprints();
+    }
+
+    public void saveBranchFingerprints(BranchFingerprints fingerprints) {
+        awaitBootstrap();
+        cache.putFingerprints(config.url(), gitLabProject.getId(), config.refName(), fingerprints);
+    }
+
+    public void createOrUpdateReviewComment(InputFile inputFile, Integer line, String body) {
+        String path = getPath(inputFile);
         try {
-            gitLabAPI.createCommitComment(gitLabProject.getId(), config.commitSHA(), body, fullpath, line.toString(), "new");
+            createReviewComment(path, line, body);
         } catch (IOException e) {
-            throw new IllegalStateException("Unable to create or update review comment in file " + fullpath + " at line " + line, e);
+            throw new IllegalStateException("Unable to create or update review comment in file " + path + " at line " + line, e);
         }
     }
 
-    private String getPath(InputPath inputPath) {
-        return new PathResolver().relativePath(gitBaseDir, inputPath.file());
+    public boolean createReviewComment(InputFile inputFile, int line, String body) throws IOException {
+        return createReviewComment(getPath(inputFile), line, body);
+    }
+
+    /**
+     * Add an inline comment unless the same one is already on the commit, letting the caller decide what to do with
+     * rate limits and other failures. In merge request mode, the comment is a discussion on the merge request diff.
+     *
+     * @param path path relative to the Git root directory
+     * @param line
+     * @param body
+     * @return false if an identical comment was already there
+     * @throws IOException
+     */
+    public boolean createReviewComment(String path, int line, String body) throws IOException {
+        awaitBootstrap();
+        if (existingComments.contains(path, line, body)) {
+            logger.debug("Skipping review comment already present in file {} at line {}", path, line);
+            return false;
+        }
+        if (mergeRequest != null) {
+            mergeRequest.createDiscussion(path, line, body);
+        } else {
+            Map<String, Object> data = new HashMap<>();
+            data.put("note", body);
+            data.put("path", path);
+            data.put("line", line);
+            data.put("line_type", "new");
+            httpClient.post(commitUrl() + "/comments", data);
+        }
+        existingComments.add(path, line, body);
+        return true;
+    }
+
+    private String commitUrl() {
+        return GitlabProject.URL + "/" + gitLabProject.getId() + "/repository/commits/" + config.commitSHA();
+    }
+
+    /**
+     * Path of a file relative to the Git root directory, as GitLab knows it. Resolving it is not free, callers
+     * handling many issues should compute it once per file, see {@link InputFileCache#pathByKey(String)}.
+     *
+     * @param inputPath
+     * @return null if the file is outside of the Git repository
+     */
+    @CheckForNull
+    public String getPath(InputPath inputPath) {
+        return getPath(inputPath.file());
+    }
+
+    /**
+     * Path of a file or directory relative to the Git root directory, empty for the root itself.
+     *
+     * @param file
+     * @return null if it is not in the Git repository
+     */
+    @CheckForNull
+    public String getPath(File file) {
+        return pathResolver.relativePath(gitBaseDir, file);
+    }
+
+    /**
+     * Paths relative to the Git root directory of the files changed by the commit, sorted.
+     *
+     * @return
+     */
+    public List<String> getChangedFiles() {
+        awaitBootstrap();
+        return changedLines.files();
     }
 
     public void addGlobalComment(String comment) {
+        awaitBootstrap();
+        if (existingComments.contains(null, null, comment)) {
+            logger.info("Global comment already present on commit {}, not adding it again", config.commitSHA());
+            return;
+        }
         try {
-            gitLabAPI.createCommitComment(gitLabProject.getId(), config.commitSHA(), comment, null, null, null);
+            if (mergeRequest != null) {
+                mergeRequest.createNote(comment);
+            } else {
+                httpClient.post(commitUrl() + "/comments", Collections.singletonMap("note", comment));
+            }
+            existingComments.add(null, null, comment);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to comment the commit", e);
         }
@@ -25,10 +25,29 @@ import org.sonar.api.batch.postjob.PostJobContext;
 import org.sonar.api.batch.postjob.PostJobDescriptor;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.ProjectIssues;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 /**
@@ -36,18 +55,29 @@ import java.util.Map;
  */
 public class CommitIssuePostJob implements PostJob {
 
+    private static final Logger logger = Loggers.get(CommitIssuePostJob.class.getName());
+
+    private static final Comparator<Issue> ISSUE_ORDER = Comparator.comparing(Issue::componentKey, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(Issue::line, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static final String STATUS_INCOMPLETE = "failed";
+    private static final String STATUS_INCOMPLETE_DESCRIPTION = "SonarQube analysis incomplete: GitLab did not answer within the publish timeout";
+
     private final GitLabPluginConfiguration gitLabPluginConfiguration;
     private final CommitFacade commitFacade;
     private final ProjectIssues projectIssues;
     private final InputFileCache inputFileCache;
     private final MarkDownUtils markDownUtils;
+    private final GitLabMetrics metrics;
 
-    public CommitIssuePostJob(GitLabPluginConfiguration gitLabPluginConfiguration, CommitFacade commitFacade, ProjectIssues projectIssues, InputFileCache inputFileCache, MarkDownUtils markDownUtils) {
+    public CommitIssuePostJob(GitLabPluginConfiguration gitLabPluginConfiguration, CommitFacade commitFacade, ProjectIssues projectIssues, InputFileCache inputFileCache,
+                              MarkDownUtils markDownUtils, GitLabMetrics metrics) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.commitFacade = commitFacade;
         this.projectIssues = projectIssues;
         this.inputFileCache = inputFileCache;
         this.markDownUtils = markDownUtils;
+        this.metrics = metrics;
     }
 
     @Override
@@ -60,60 +90,329 @@ public class CommitIssuePostJob implements PostJob {
     @Override
     @ParametersAreNonnullByDefault
     public void execute(final PostJobContext postJobContext) {
-        final GlobalReport report = new GlobalReport(gitLabPluginConfiguration, markDownUtils);
+        try (GitLabMetrics.Timer ignored = metrics.phase("post_job")) {
+            publish();
+        } finally {
+            metrics.report();
+        }
+    }
 
-        final Map<InputFile, Map<Integer, StringBuilder>> commentsToBeAddedByLine = processIssues(report);
+    /**
+     * With a publish timeout, inline comments are sent by decreasing severity for the first three quarters of it, and
+     * the ones being sent then are waited for until seven eighths of it. The commit status is then set before the
+     * global comment, which lists the issues whose comment was not sent. So that the most severe are sent first,
+     * comments are then only sent once every issue is classified. Issues classified after the first three quarters
+     * are not commented. If GitLab is not bootstrapped by then, nothing is published but a failed status, queued after
+     * the pending one so that the commit is not left pending once GitLab answers.
+     */
+    private void publish() {
+        final long budget = gitLabPluginConfiguration.publishTimeoutMillis();
+        final long start = System.currentTimeMillis();
+        final long deadline = budget > 0 ? start + budget : Long.MAX_VALUE;
+        final long commentDeadline = budget > 0 ? start + budget * 3 / 4 : Long.MAX_VALUE;
+        commitFacade.setPublishDeadline(deadline);
+        if (budget > 0 && !commitFacade.awaitBootstrap(commentDeadline)) {
+            logger.warn("GitLab bootstrap not completed within the publish timeout of {} ms, only a failed commit status is queued", budget);
+            commitFacade.createOrUpdateSonarQubeStatusAsync(STATUS_INCOMPLETE, STATUS_INCOMPLETE_DESCRIPTION);
+            return;
+        }
+        final GlobalReport report = new GlobalReport(gitLabPluginConfiguration, markDownUtils);
+        final BranchFingerprints fingerprints = GitLabPlugin.PREVIOUSLY_REPORTED_COMMENT.equals(gitLabPluginConfiguration.previouslyReported())
+                ? null : commitFacade.loadBranchFingerprints();
 
-        updateReviewComments(commentsToBeAddedByLine);
+        ReviewCommentPublisher publisher = new ReviewCommentPublisher(comment -> {
+            boolean sent = commitFacade.createReviewComment(comment.getPath(), comment.getLine(), comment.getBody());
+            if (fingerprints != null) {
+                fingerprints.published(comment.getPath(), comment.getLine(), gitLabPluginConfiguration.commitSHA());
+            }
+            return sent;
+        }, gitLabPluginConfiguration.publishParallelism(), ReviewCommentPublisher.DEFAULT_MAX_ATTEMPTS, ReviewCommentPublisher.DEFAULT_BACKOFF_MILLIS,
+                commentDeadline, gitLabPluginConfiguration.circuitBreakerThreshold());
+        ReviewCommentPublisher.Result result;
+        List<ReviewComment> bySeverity = budget > 0 ? Collections.synchronizedList(new ArrayList<>()) : null;
+        try (GitLabMetrics.Timer ignored = metrics.phase("post_job.classify")) {
+            processIssues(report, fingerprints, commentDeadline, bySeverity != null ? bySeverity::add : publisher::submit);
+        } finally {
+            if (bySeverity != null) {
+                publisher.submitAll(bySeverity);
+            }
+            try (GitLabMetrics.Timer ignored = metrics.phase("post_job.inline_comments")) {
+                result = budget > 0 ? publisher.finish(start + budget * 7 / 8) : publisher.finish();
+            }
+            logPublication(result);
+        }
+        // A comment still being sent when waiting for it stopped may also have failed
+        Set<ReviewComment> unpublished = new LinkedHashSet<>(result.getUnsent());
+        result.getFailures().forEach(failure -> unpublished.add(failure.getComment()));
+        for (ReviewComment comment : unpublished) {
+            String gitLabUrl = commitFacade.getGitLabUrl(comment.getPath(), comment.getLine());
+            comment.getIssues().forEach(issue -> report.unpublished(issue, gitLabUrl));
+        }
+        if (fingerprints != null) {
+            commitFacade.saveBranchFingerprints(fingerprints);
+            logger.debug("{} issue fingerprint(s) kept for the next analyses of {}", fingerprints.size(), gitLabPluginConfiguration.refName());
+        }
 
+        boolean statusFirst = budget > 0;
+        if (statusFirst) {
+            try (GitLabMetrics.Timer ignored = metrics.phase("post_job.status")) {
+                commitFacade.createOrUpdateSonarQubeStatus(report.getStatus(), report.getStatusDescription(), deadline);
+            }
+        }
         if (report.hasNewIssue() || gitLabPluginConfiguration.commentNoIssue()) {
-            commitFacade.addGlobalComment(report.formatForMarkdown());
+            if (System.currentTimeMillis() < deadline) {
+                String globalComment;
+                try (GitLabMetrics.Timer ignored = metrics.phase("post_job.render")) {
+                    globalComment = report.formatForMarkdown();
+                }
+                try (GitLabMetrics.Timer ignored = metrics.phase("post_job.global_comment")) {
+                    commitFacade.addGlobalComment(globalComment);
+                }
+            } else {
+                logger.warn("GitLab publish timeout of {} ms reached, the global comment is not added", budget);
+            }
+        }
+        if (!statusFirst) {
+            updateStatus(report);
         }
+    }
 
-        commitFacade.createOrUpdateSonarQubeStatus(report.getStatus(), report.getStatusDescription());
+    private void updateStatus(GlobalReport report) {
+        try (GitLabMetrics.Timer ignored = metrics.phase("post_job.status")) {
+            commitFacade.createOrUpdateSonarQubeStatus(report.getStatus(), report.getStatusDescription());
+        }
     }
 
-    private Map<InputFile, Map<Integer, StringBuilder>> processIssues(GlobalReport report) {
-        Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine = new HashMap<>();
-        for (Issue issue : projectIssues.issues()) {
-            String severity = issue.severity();
-            boolean isNew = issue.isNew();
-            if (!isNew) {
-                continue;
+    /**
+     * Classify the new issues, file by file and line by line, handing each inline comment over as soon as the last
+     * issue of its line has been seen, so that it can be posted while the next ones are classified.
+     * <p>
+     * With a classification parallelism above 1, files are split between fork-join workers that each fill their own
+     * partial report, partial reports are then merged in file order so the result does not depend on the scheduling.
+     * Comments of different files may then be handed over in any order, the consumer must be thread-safe.
+     * <p>
+     * Nothing is sent to GitLab, this is also the entry point of the classification benchmark.
+     *
+     * @param report
+     * @param comments
+     */
+    public void processIssues(GlobalReport report, Consumer<ReviewComment> comments) {
+        processIssues(report, null, Long.MAX_VALUE, comments);
+    }
+
+    /**
+     * Same as {@link #processIssues(GlobalReport, Consumer)}, issues found in the fingerprints of the branch are not
+     * commented again.
+     * <p>
+     * Issues within the comment line window of a comment are added to it, and comments over the per-file or
+     * per-commit caps are not made, their issues being listed in the global comment. Issues are classified
+     * sequentially when there is a per-commit cap, so that the comments made are the first ones in issue order.
+     *
+     * <p>
+     * Issues on the diff classified after the comment deadline are not commented but listed in the global comment.
+     *
+     * @param report
+     * @param fingerprints
+     * @param commentDeadline time in milliseconds since the epoch
+     * @param comments
+     */
+    void processIssues(GlobalReport report, @Nullable BranchFingerprints fingerprints, long commentDeadline, Consumer<ReviewComment> comments) {
+        List<Issue> issues = sortedNewIssues();
+        InputFileCache files = inputFileCache.snapshot();
+        int parallelism = gitLabPluginConfiguration.classificationParallelism();
+        AtomicInteger inlineComments = new AtomicInteger();
+        if (parallelism <= 1 || gitLabPluginConfiguration.maxInlineComments() > 0) {
+            classify(files, issues, fingerprints, inlineComments, commentDeadline, report, comments);
+            return;
+        }
+
+        List<List<Issue>> issuesByFile = groupByFile(issues);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            report.merge(pool.submit(() -> issuesByFile.parallelStream().collect(
+                    () -> new GlobalReport(gitLabPluginConfiguration, markDownUtils),
+                    (partial, fileIssues) -> classify(files, fileIssues, fingerprints, inlineComments, commentDeadline, partial, comments),
+                    GlobalReport::merge)).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while classifying issues", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new IllegalStateException("Unable to classify issues", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void classify(InputFileCache files, List<Issue> issues, @Nullable BranchFingerprints fingerprints, AtomicInteger inlineComments,
+                          long commentDeadline, GlobalReport report, Consumer<ReviewComment> comments) {
+        String commentPath = null;
+        int commentLine = 0;
+        CommentWriter commentBody = null;
+        List<Issue> commentIssues = null;
+        int maxCommentSize = gitLabPluginConfiguration.maxCommentSize();
+        int lineWindow = gitLabPluginConfiguration.commentLineWindow();
+        int maxPerFile = gitLabPluginConfiguration.maxInlineCommentsPerFile();
+        int maxPerCommit = gitLabPluginConfiguration.maxInlineComments();
+        String countedPath = null;
+        int fileComments = 0;
+        int overCaps = 0;
+        boolean linkPreviouslyReported = GitLabPlugin.PREVIOUSLY_REPORTED_LINK.equals(gitLabPluginConfiguration.previouslyReported());
+        String sourcePath = null;
+        List<String> source = Collections.emptyList();
+        for (Issue issue : issues) {
             Integer issueLine = issue.line();
-            InputFile inputFile = inputFileCache.byKey(issue.componentKey());
-            if (gitLabPluginConfiguration.ignoreFileNotModified() && inputFile != null && !commitFacade.hasFile(inputFile)) {
+            InputFile inputFile = files.byKey(issue.componentKey());
+            String path = inputFile != null ? files.pathByKey(issue.componentKey()) : null;
+            if (gitLabPluginConfiguration.ignoreFileNotModified() && inputFile != null && !commitFacade.hasFile(path)) {
                 continue;
             }
             boolean reportedInline = false;
-            if (inputFile != null && issueLine != null) {
-                if (commitFacade.hasFileLine(inputFile, issueLine)) {
-                    String message = issue.message();
-                    String ruleKey = issue.ruleKey().toString();
-                    if (!commentToBeAddedByFileAndByLine.containsKey(inputFile)) {
-                        commentToBeAddedByFileAndByLine.put(inputFile, new HashMap<>());
+            // Files outside of the Git root have no path
+            if (inputFile != null && path != null && issueLine != null && commitFacade.hasFileLine(path, issueLine)) {
+                // Only issues on the diff are fingerprinted, other files are not read
+                long fingerprint = 0;
+                BranchFingerprints.Reported earlier = null;
+                if (fingerprints != null) {
+                    if (!path.equals(sourcePath)) {
+                        sourcePath = path;
+                        source = readLines(inputFile);
                     }
-                    Map<Integer, StringBuilder> commentsByLine = commentToBeAddedByFileAndByLine.get(inputFile);
-                    if (!commentsByLine.containsKey(issueLine)) {
-                        commentsByLine.put(issueLine, new StringBuilder());
+                    fingerprint = BranchFingerprints.fingerprint(issue.ruleKey().toString(), path, issue.message(),
+                            issueLine <= source.size() ? source.get(issueLine - 1) : null);
+                    earlier = fingerprints.seen(fingerprint);
+                }
+                if (earlier != null) {
+                    // Already commented on an earlier commit of the branch
+                    if (linkPreviouslyReported) {
+                        report.previouslyReported(issue, commitFacade.getCommitUrl(earlier.getSha()));
+                        continue;
+                    }
+                    reportedInline = true;
+                } else {
+                    if (commentBody == null || !path.equals(commentPath) || issueLine - commentLine > lineWindow) {
+                        flush(comments, commentPath, commentLine, commentBody, commentIssues);
+                        commentBody = null;
+                        if (System.currentTimeMillis() >= commentDeadline) {
+                            // Too late to be sent, as if its comment had not been sent
+                            String gitLabUrl = commitFacade.getGitLabUrl(path, issueLine);
+                            report.process(issue, gitLabUrl, true);
+                            report.unpublished(issue, gitLabUrl);
+                            continue;
+                        }
+                        if (!path.equals(countedPath)) {
+                            countedPath = path;
+                            fileComments = 0;
+                        }
+                        if ((maxPerFile > 0 && fileComments >= maxPerFile) || !acquire(inlineComments, maxPerCommit)) {
+                            overCaps++;
+                            report.overCommentLimits(issue, commitFacade.getGitLabUrl(path, issueLine));
+                            continue;
+                        }
+                        fileComments++;
+                        commentPath = path;
+                        commentLine = issueLine;
+                        commentBody = new CommentWriter(maxCommentSize);
+                        commentIssues = new ArrayList<>();
+                    }
+                    commentIssues.add(issue);
+                    // Issues merged from the following lines tell where they are
+                    String linePrefix = issueLine != commentLine ? "Line " + issueLine + ": " : "";
+                    commentBody.appendEntry(sb -> markDownUtils.appendInlineIssue(sb.append(linePrefix), issue.severity(), issue.message(),
+                            issue.ruleKey().toString()).append("\n"));
+                    if (fingerprints != null) {
+                        fingerprints.commenting(path, commentLine, fingerprint);
                     }
-                    commentsByLine.get(issueLine).append(markDownUtils.inlineIssue(severity, message, ruleKey)).append("\n");
                     reportedInline = true;
                 }
             }
-            report.process(issue, commitFacade.getGitLabUrl(inputFile, issueLine), reportedInline);
+            report.process(issue, commitFacade.getGitLabUrl(path, issueLine), reportedInline);
+        }
+        flush(comments, commentPath, commentLine, commentBody, commentIssues);
+        metrics.count("issues_over_comment_caps", overCaps);
+    }
+
+    /**
+     * Take one of the inline comments allowed on the commit.
+     *
+     * @param inlineComments comments already taken
+     * @param max            maximum number of comments, 0 for no limit
+     * @return false if none is left
+     */
+    private static boolean acquire(AtomicInteger inlineComments, int max) {
+        return max <= 0 || inlineComments.getAndUpdate(taken -> taken < max ? taken + 1 : taken) < max;
+    }
+
+    /**
+     * Lines of a file, only used to fingerprint issues: the encoding does not matter as long as it is always the same.
+     */
+    private static List<String> readLines(InputFile inputFile) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(inputFile.path()), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            logger.debug("Unable to read " + inputFile + ", its issues are fingerprinted without their line", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * New issues ordered by component then line, keeping the order of the analysis for issues on the same line.
+     */
+    private List<Issue> sortedNewIssues() {
+        List<Issue> newIssues = new ArrayList<>();
+        for (Issue issue : projectIssues.issues()) {
+            if (issue.isNew()) {
+                newIssues.add(issue);
+            }
+        }
+        newIssues.sort(ISSUE_ORDER);
+        return newIssues;
+    }
 
+    /**
+     * Split issues sorted by component into one list per component.
+     */
+    private static List<List<Issue>> groupByFile(List<Issue> issues) {
+        List<List<Issue>> files = new ArrayList<>();
+        int from = 0;
+        for (int i = 1; i <= issues.size(); i++) {
+            if (i == issues.size() || !Objects.equals(issues.get(i).componentKey(), issues.get(from).componentKey())) {
+                files.add(issues.subList(from, i));
+                from = i;
+            }
         }
-        return commentToBeAddedByFileAndByLine;
+        return files;
     }
 
-    private void updateReviewComments(Map<InputFile, Map<Integer, StringBuilder>> commentsToBeAddedByLine) {
-        for (Map.Entry<InputFile, Map<Integer, StringBuilder>> entry : commentsToBeAddedByLine.entrySet()) {
-            for (Map.Entry<Integer, StringBuilder> entryPerLine : entry.getValue().entrySet()) {
-                String body = entryPerLine.getValue().toString();
-                commitFacade.createOrUpdateReviewComment(entry.getKey(), entryPerLine.getKey(), body);
+    private static void flush(Consumer<ReviewComment> comments, @Nullable String path, int line, @Nullable CommentWriter body,
+                              @Nullable List<Issue> issues) {
+        if (body != null) {
+            if (body.getOmitted() > 0) {
+                body.append("... " + body.getOmitted() + " more\n");
             }
+            comments.accept(new ReviewComment(path, line, body.toString(), issues));
+        }
+    }
+
+    private void logPublication(ReviewCommentPublisher.Result result) {
+        metrics.count("comments_published", result.getPublished());
+        metrics.count("comments_already_present", result.getSkipped());
+        metrics.count("comments_failed", result.getFailures().size());
+        metrics.count("comment_retries", result.getRetries());
+        metrics.count("comments_unsent", result.getUnsent().size());
+        metrics.count("comments_in_flight", result.getInFlight());
+        logger.info("{} review comment(s) added to GitLab, {} already present, {} failed", result.getPublished(), result.getSkipped(), result.getFailures().size());
+        for (ReviewCommentPublisher.Failure failure : result.getFailures()) {
+            logger.warn("Unable to add review comment on " + failure.getComment() + ": " + failure.getCause().getMessage());
+        }
+        if (!result.getUnsent().isEmpty()) {
+            logger.warn("{} review comment(s) not sent because of the publish timeout or of repeated GitLab errors, their issues are listed in the global comment",
+                    result.getUnsent().size());
+        }
+        if (result.getInFlight() > 0) {
+            logger.warn("{} of them were still being sent at the publish timeout, GitLab may show them too", result.getInFlight());
         }
     }
 
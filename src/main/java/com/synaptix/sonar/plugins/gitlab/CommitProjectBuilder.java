@@ -20,6 +20,7 @@
 package com.synaptix.sonar.plugins.gitlab;
 
 import org.sonar.api.batch.bootstrap.ProjectBuilder;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
 import org.sonar.api.config.Settings;
 
 
@@ -36,19 +37,28 @@ public class CommitProjectBuilder extends ProjectBuilder {
 
     private final CommitFacade commitFacade;
 
+    private final GitLabMetrics metrics;
+
     public CommitProjectBuilder(final GitLabPluginConfiguration gitLabPluginConfiguration, final CommitFacade commitFacade,
-                                final Settings settings) {
+                                final Settings settings, final GitLabMetrics metrics) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.settings = settings;
         this.commitFacade = commitFacade;
+        this.metrics = metrics;
     }
 
     @Override
     public void build(Context context) {
         if (gitLabPluginConfiguration.isEnabled()) {
-            commitFacade.init(context.projectReactor().getRoot().getBaseDir());
+            try (GitLabMetrics.Timer ignored = metrics.phase("project_builder")) {
+                ProjectDefinition root = context.projectReactor().getRoot();
+                if (root.getWorkDir() != null) {
+                    metrics.setOutputDir(root.getWorkDir().toPath());
+                }
+                commitFacade.init(root.getBaseDir());
 
-            commitFacade.createOrUpdateSonarQubeStatus("pending", "SonarQube analysis in progress");
+                commitFacade.createOrUpdateSonarQubeStatusAsync("pending", "SonarQube analysis in progress");
+            }
         }
     }
 
@@ -0,0 +1,154 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Statuses set by the plugin on the analysed commit.
+ * <p>
+ * The status GitLab shows is fetched once, updates that would not change it are not sent. Final statuses reported
+ * several times during the analysis, or by several analyses of the commit, are coalesced into one: the worst state
+ * wins and the descriptions of the analyses in that state are kept.
+ */
+public class CommitStatuses {
+
+    // By increasing severity
+    private static final List<String> FINAL_STATES = Arrays.asList("success", "canceled", "failed");
+
+    private boolean fetched;
+    private Status current;
+    private Status analysisFinal;
+
+    public synchronized boolean isFetched() {
+        return fetched;
+    }
+
+    /**
+     * @param status shown by GitLab, null if none or unknown
+     */
+    public synchronized void fetched(@Nullable Status status) {
+        fetched = true;
+        current = status;
+    }
+
+    public synchronized boolean isCurrent(Status status) {
+        return status.equals(current);
+    }
+
+    public synchronized void sent(Status status) {
+        current = status;
+    }
+
+    /**
+     * @param status final status reported by a module of this analysis
+     * @return final status of this analysis, the worst reported so far
+     */
+    public synchronized Status analysisFinal(Status status) {
+        if (analysisFinal == null || rank(status.getState()) >= rank(analysisFinal.getState())) {
+            analysisFinal = status;
+        }
+        return analysisFinal;
+    }
+
+    public static boolean isFinal(String state) {
+        return FINAL_STATES.contains(state);
+    }
+
+    /**
+     * @param byAnalysis final status of each analysis of the commit, at least one
+     * @return the status to show on the commit
+     */
+    public static Status coalesce(Map<String, Status> byAnalysis) {
+        if (byAnalysis.size() == 1) {
+            return byAnalysis.values().iterator().next();
+        }
+        String worst = null;
+        for (Status status : byAnalysis.values()) {
+            if (worst == null || rank(status.getState()) > rank(worst)) {
+                worst = status.getState();
+            }
+        }
+        List<String> descriptions = new ArrayList<>();
+        for (Map.Entry<String, Status> entry : byAnalysis.entrySet()) {
+            if (entry.getValue().getState().equals(worst) && entry.getValue().getDescription() != null) {
+                descriptions.add(entry.getKey() + ": " + entry.getValue().getDescription());
+            }
+        }
+        return new Status(worst, descriptions.isEmpty() ? null : String.join("; ", descriptions));
+    }
+
+    private static int rank(String state) {
+        return FINAL_STATES.indexOf(state);
+    }
+
+    public static final class Status {
+
+        private final String state;
+        private final String description;
+
+        @JsonCreator
+        public Status(@JsonProperty("state") String state, @JsonProperty("description") @Nullable String description) {
+            this.state = state;
+            this.description = description;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        @CheckForNull
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Status status = (Status) o;
+            return state.equals(status.state) && Objects.equals(description, status.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(state, description);
+        }
+
+        @Override
+        public String toString() {
+            return state + (description != null ? " (" + description + ")" : "");
+        }
+    }
+
+}
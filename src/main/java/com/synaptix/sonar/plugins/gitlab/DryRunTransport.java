@@ -0,0 +1,66 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.GitlabAPI;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads from GitLab through another transport but never changes anything: every other request, such as a comment or a
+ * status update, is written to a file as one JSON line holding the method, the path and the body, and answered as if
+ * GitLab had accepted it.
+ */
+public class DryRunTransport implements GitLabTransport {
+
+    private static final int HTTP_CREATED = 201;
+
+    private final GitLabTransport delegate;
+    private final JsonLines plannedRequests;
+
+    /**
+     * @param file emptied before the first request is written
+     */
+    public DryRunTransport(GitLabTransport delegate, Path file) throws IOException {
+        this.delegate = delegate;
+        this.plannedRequests = new JsonLines(file);
+    }
+
+    @Override
+    public Response execute(String method, String url, Map<String, String> headers, @Nullable byte[] body) throws IOException {
+        if ("GET".equals(method)) {
+            return delegate.execute(method, url, headers, body);
+        }
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("method", method);
+        request.put("url", RecordingTransport.pathAndQuery(url));
+        if (body != null) {
+            request.put("body", GitlabAPI.MAPPER.readTree(body));
+        }
+        plannedRequests.append(request);
+        return new Response(HTTP_CREATED, Collections.emptyMap(), "{}");
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.GitlabAPIException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain HTTP access to the GitLab API, used for every call of the plugin. Unlike {@link GitlabAPI}, it exposes the rate
+ * limit headers of the responses and lets the {@link GitLabTransport} be chosen.
+ * <p>
+ * When a response says that no request is left in the current rate limit window, the next request waits for the
+ * window to reset, at most {@link #MAX_RATE_LIMIT_WAIT_MILLIS} and not past the deadline. A 429 response is reported as a {@link GitLabRateLimitException} so that callers can retry.
+ */
+public class GitLabHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30_000;
+
+    public static final String API_V3 = "/api/v3";
+    public static final String API_V4 = "/api/v4";
+
+    public static final long MAX_RATE_LIMIT_WAIT_MILLIS = 60_000;
+
+    private static final String PRIVATE_TOKEN_HEADER = "PRIVATE-TOKEN";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    private final String hostUrl;
+    private final String apiToken;
+    private final GitLabTransport transport;
+    private final String apiNamespace;
+    private final GitLabMetrics metrics;
+    private volatile long rateLimitResetAt;
+    private volatile long deadline = Long.MAX_VALUE;
+
+    public GitLabHttpClient(String hostUrl, @Nullable String apiToken) {
+        this(hostUrl, apiToken, new UrlConnectionTransport(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS));
+    }
+
+    public GitLabHttpClient(String hostUrl, @Nullable String apiToken, GitLabTransport transport) {
+        this(hostUrl, apiToken, transport, API_V3);
+    }
+
+    /**
+     * @param apiNamespace path of the API version, {@link #API_V3} or {@link #API_V4}
+     */
+    public GitLabHttpClient(String hostUrl, @Nullable String apiToken, GitLabTransport transport, String apiNamespace) {
+        this(hostUrl, apiToken, transport, apiNamespace, new GitLabMetrics());
+    }
+
+    /**
+     * @param metrics where every request is recorded
+     */
+    public GitLabHttpClient(String hostUrl, @Nullable String apiToken, GitLabTransport transport, String apiNamespace, GitLabMetrics metrics) {
+        this.hostUrl = hostUrl.endsWith("/") ? hostUrl.substring(0, hostUrl.length() - 1) : hostUrl;
+        this.apiToken = apiToken;
+        this.transport = transport;
+        this.apiNamespace = apiNamespace;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param deadline time in milliseconds since the epoch after which requests no longer wait for the rate limit to
+     *                 reset
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public String get(String tailUrl) throws IOException {
+        return execute("GET", tailUrl, null);
+    }
+
+    public <T> T get(String tailUrl, Class<T> type) throws IOException {
+        return GitlabAPI.MAPPER.readValue(get(tailUrl), type);
+    }
+
+    public String post(String tailUrl, Map<String, Object> data) throws IOException {
+        return execute("POST", tailUrl, data);
+    }
+
+    private String execute(String method, String tailUrl, @Nullable Map<String, Object> data) throws IOException {
+        waitForRateLimitReset();
+
+        Map<String, String> headers = new HashMap<>();
+        if (apiToken != null) {
+            headers.put(PRIVATE_TOKEN_HEADER, apiToken);
+        }
+        byte[] body = null;
+        if (data != null) {
+            body = GitlabAPI.MAPPER.writeValueAsBytes(data);
+            headers.put("Content-Type", "application/json");
+        }
+
+        long start = System.nanoTime();
+        GitLabTransport.Response response;
+        try {
+            response = transport.execute(method, hostUrl + apiNamespace + tailUrl, headers, body);
+        } catch (IOException e) {
+            metrics.request(method, tailUrl, -1, System.nanoTime() - start, body != null ? body.length : 0, 0);
+            throw e;
+        }
+        int status = response.getStatus();
+        metrics.request(method, tailUrl, status, System.nanoTime() - start, body != null ? body.length : 0, receivedBytes(response));
+        recordRateLimit(response);
+        if (status == HTTP_TOO_MANY_REQUESTS) {
+            throw new GitLabRateLimitException(method + " " + tailUrl + " was rate limited", retryAfterMillis(response));
+        }
+        if (status >= HTTP_BAD_REQUEST) {
+            throw new GitlabAPIException(method + " " + tailUrl + " failed with " + status + ": " + response.getBody(), status, null);
+        }
+        return response.getBody();
+    }
+
+    /**
+     * Bytes on the wire when the server said so, compressed ones included, otherwise the size of the decoded body.
+     */
+    private static long receivedBytes(GitLabTransport.Response response) {
+        long contentLength = parseLong(String.valueOf(response.getHeader("Content-Length")), -1);
+        if (contentLength >= 0) {
+            return contentLength;
+        }
+        return Utf8.length(response.getBody(), 0);
+    }
+
+    private void waitForRateLimitReset() throws IOException {
+        long now = System.currentTimeMillis();
+        long wait = Math.min(rateLimitResetAt - now, Math.min(MAX_RATE_LIMIT_WAIT_MILLIS, deadline - now));
+        if (wait > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the GitLab rate limit to reset", e);
+            }
+        }
+    }
+
+    private void recordRateLimit(GitLabTransport.Response response) {
+        String remaining = response.getHeader("RateLimit-Remaining");
+        String reset = response.getHeader("RateLimit-Reset");
+        if (remaining != null && reset != null && parseLong(remaining, 1) <= 0) {
+            rateLimitResetAt = TimeUnit.SECONDS.toMillis(parseLong(reset, 0));
+        }
+    }
+
+    /**
+     * Delay asked by the server before retrying, from Retry-After (seconds or HTTP date) or RateLimit-Reset (epoch
+     * seconds), or -1 when the server gave none.
+     */
+    private static long retryAfterMillis(GitLabTransport.Response response) {
+        String retryAfter = response.getHeader("Retry-After");
+        if (retryAfter != null) {
+            long seconds = parseLong(retryAfter, -1);
+            if (seconds >= 0) {
+                return TimeUnit.SECONDS.toMillis(seconds);
+            }
+            try {
+                return Math.max(0, ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException e) {
+                return -1;
+            }
+        }
+        String reset = response.getHeader("RateLimit-Reset");
+        if (reset != null && parseLong(reset, -1) > 0) {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(parseLong(reset, 0)) - System.currentTimeMillis());
+        }
+        return -1;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+}
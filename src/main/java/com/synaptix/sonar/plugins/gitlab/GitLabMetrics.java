@@ -0,0 +1,347 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.GitlabAPI;
+import org.sonar.api.batch.BatchSide;
+import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of the plugin goes: wall time of its phases, and for each GitLab endpoint the number of requests,
+ * failures, a latency histogram and the bytes sent and received, plus counters such as retried comments.
+ * <p>
+ * At the end of the analysis a summary is logged, and the metrics are written to the working directory as
+ * {@value #JSON_FILE} and as a Prometheus textfile {@value #PROMETHEUS_FILE}, for CI dashboards.
+ */
+@InstantiationStrategy(InstantiationStrategy.PER_BATCH)
+@BatchSide
+public class GitLabMetrics {
+
+    public static final String JSON_FILE = "gitlab-metrics.json";
+    public static final String PROMETHEUS_FILE = "gitlab-metrics.prom";
+
+    private static final Logger logger = Loggers.get(GitLabMetrics.class.getName());
+    // Upper bounds of the latency buckets, in milliseconds
+    private static final long[] LATENCY_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    private static final String PREFIX = "sonar_gitlab_";
+
+    private final Map<String, Long> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private volatile Path outputDir;
+
+    /**
+     * Start timing a phase, the time is added to the phase when the returned timer is closed.
+     *
+     * @param name
+     * @return
+     */
+    public Timer phase(String name) {
+        long start = System.nanoTime();
+        return () -> addPhase(name, System.nanoTime() - start);
+    }
+
+    public void addPhase(String name, long nanos) {
+        phases.merge(name, nanos, Long::sum);
+    }
+
+    /**
+     * @param method
+     * @param tailUrl path of the request below the API namespace, ids and SHAs are grouped
+     * @param status HTTP status, or -1 when no response was received
+     * @param nanos
+     * @param bytesSent
+     * @param bytesReceived
+     */
+    public void request(String method, String tailUrl, int status, long nanos, long bytesSent, long bytesReceived) {
+        endpoints.computeIfAbsent(method + " " + endpoint(tailUrl), key -> new Endpoint()).record(status, nanos, bytesSent, bytesReceived);
+    }
+
+    public void count(String counter, long delta) {
+        counters.computeIfAbsent(counter, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * @param outputDir where the metrics files are written, usually the working directory of the analysis
+     */
+    public void setOutputDir(@Nullable Path outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @CheckForNull
+    public Path getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Log a summary and write the metrics files. Failing to write them only logs a warning.
+     */
+    public void report() {
+        logger.info("GitLab phases: {}", formatPhases());
+        new TreeMap<>(endpoints).forEach((name, endpoint) -> logger.info("GitLab {}: {} request(s), {} failed, {} ms average, {} ms max, {} B sent, {} B received",
+                name, endpoint.count.sum(), endpoint.failures.sum(), TimeUnit.NANOSECONDS.toMillis(endpoint.nanos.sum() / Math.max(1, endpoint.count.sum())),
+                TimeUnit.NANOSECONDS.toMillis(endpoint.maxNanos()), endpoint.bytesSent.sum(), endpoint.bytesReceived.sum()));
+        if (!counters.isEmpty()) {
+            logger.info("GitLab counters: {}", new TreeMap<>(counters));
+        }
+
+        Path dir = outputDir;
+        if (dir != null) {
+            try {
+                Files.createDirectories(dir);
+                write(dir.resolve(JSON_FILE), out -> GitlabAPI.MAPPER.writerWithDefaultPrettyPrinter().writeValue(out, toJson()));
+                write(dir.resolve(PROMETHEUS_FILE), out -> {
+                    try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                        writer.write(toPrometheus());
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("Unable to write GitLab metrics to " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        Map<String, Object> phaseMillis = new LinkedHashMap<>();
+        synchronized (phases) {
+            phases.forEach((name, nanos) -> phaseMillis.put(name, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+        json.put("phasesMillis", phaseMillis);
+        Map<String, Object> endpointJson = new LinkedHashMap<>();
+        new TreeMap<>(endpoints).forEach((name, endpoint) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("requests", endpoint.count.sum());
+            values.put("failures", endpoint.failures.sum());
+            values.put("rateLimited", endpoint.rateLimited.sum());
+            values.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(endpoint.nanos.sum()));
+            values.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(endpoint.maxNanos()));
+            Map<String, Long> buckets = new LinkedHashMap<>();
+            for (int i = 0; i <= LATENCY_BUCKETS.length; i++) {
+                buckets.put(i < LATENCY_BUCKETS.length ? String.valueOf(LATENCY_BUCKETS[i]) : "+Inf", endpoint.cumulativeBucket(i));
+            }
+            values.put("latencyBucketsMillis", buckets);
+            values.put("bytesSent", endpoint.bytesSent.sum());
+            values.put("bytesReceived", endpoint.bytesReceived.sum());
+            endpointJson.put(name, values);
+        });
+        json.put("endpoints", endpointJson);
+        Map<String, Object> counterJson = new LinkedHashMap<>();
+        new TreeMap<>(counters).forEach((name, value) -> counterJson.put(name, value.sum()));
+        json.put("counters", counterJson);
+        return json;
+    }
+
+    String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        header(sb, "phase_seconds", "gauge", "Wall time of the phases of the GitLab plugin");
+        synchronized (phases) {
+            phases.forEach((name, nanos) -> sample(sb, "phase_seconds", "phase", name, null, seconds(nanos)));
+        }
+        Map<String, Endpoint> sorted = new TreeMap<>(endpoints);
+        header(sb, "requests_total", "counter", "GitLab API requests");
+        sorted.forEach((name, endpoint) -> sample(sb, "requests_total", "endpoint", name, null, String.valueOf(endpoint.count.sum())));
+        header(sb, "request_failures_total", "counter", "GitLab API requests without response or with an error status");
+        sorted.forEach((name, endpoint) -> sample(sb, "request_failures_total", "endpoint", name, null, String.valueOf(endpoint.failures.sum())));
+        header(sb, "rate_limited_total", "counter", "GitLab API requests answered with 429");
+        sorted.forEach((name, endpoint) -> sample(sb, "rate_limited_total", "endpoint", name, null, String.valueOf(endpoint.rateLimited.sum())));
+        header(sb, "request_duration_seconds", "histogram", "Latency of GitLab API requests");
+        sorted.forEach((name, endpoint) -> {
+            for (int i = 0; i <= LATENCY_BUCKETS.length; i++) {
+                String le = i < LATENCY_BUCKETS.length ? seconds(TimeUnit.MILLISECONDS.toNanos(LATENCY_BUCKETS[i])) : "+Inf";
+                sample(sb, "request_duration_seconds_bucket", "endpoint", name, le, String.valueOf(endpoint.cumulativeBucket(i)));
+            }
+            sample(sb, "request_duration_seconds_sum", "endpoint", name, null, seconds(endpoint.nanos.sum()));
+            sample(sb, "request_duration_seconds_count", "endpoint", name, null, String.valueOf(endpoint.count.sum()));
+        });
+        header(sb, "request_bytes_sent_total", "counter", "Bytes of GitLab API request bodies");
+        sorted.forEach((name, endpoint) -> sample(sb, "request_bytes_sent_total", "endpoint", name, null, String.valueOf(endpoint.bytesSent.sum())));
+        header(sb, "request_bytes_received_total", "counter", "Bytes of GitLab API response bodies, compressed when sent so");
+        sorted.forEach((name, endpoint) -> sample(sb, "request_bytes_received_total", "endpoint", name, null, String.valueOf(endpoint.bytesReceived.sum())));
+        header(sb, "events_total", "counter", "Events of the GitLab plugin");
+        new TreeMap<>(counters).forEach((name, value) -> sample(sb, "events_total", "event", name, null, String.valueOf(value.sum())));
+        return sb.toString();
+    }
+
+    private String formatPhases() {
+        List<String> parts = new ArrayList<>();
+        synchronized (phases) {
+            phases.forEach((name, nanos) -> parts.add(name + "=" + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms"));
+        }
+        return String.join(", ", parts);
+    }
+
+    /**
+     * Group requests differing only by ids: the segment after "projects", "commits", "statuses" or "merge_requests"
+     * is replaced by a placeholder and the query string is dropped.
+     */
+    static String endpoint(String tailUrl) {
+        int query = tailUrl.indexOf('?');
+        String[] segments = (query >= 0 ? tailUrl.substring(0, query) : tailUrl).split("/", -1);
+        for (int i = 1; i < segments.length; i++) {
+            switch (segments[i - 1]) {
+                case "projects":
+                    segments[i] = ":id";
+                    break;
+                case "commits":
+                case "statuses":
+                    segments[i] = ":sha";
+                    break;
+                case "merge_requests":
+                    segments[i] = ":iid";
+                    break;
+                default:
+                    break;
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, @Nullable String le, String value) {
+        sb.append(PREFIX).append(name).append('{').append(label).append("=\"");
+        escape(sb, labelValue);
+        sb.append('"');
+        if (le != null) {
+            sb.append(",le=\"").append(le).append('"');
+        }
+        sb.append("} ").append(value).append('\n');
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static void write(Path file, FileWriter writer) throws IOException {
+        // Written aside then moved, so that a collector never reads half a file
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writer.write(out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Timer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    @FunctionalInterface
+    private interface FileWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static final class Endpoint {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(int status, long requestNanos, long sent, long received) {
+            count.increment();
+            if (status < 0 || status >= 400) {
+                failures.increment();
+            }
+            if (status == 429) {
+                rateLimited.increment();
+            }
+            nanos.add(requestNanos);
+            bytesSent.add(sent);
+            bytesReceived.add(received);
+            long millis = TimeUnit.NANOSECONDS.toMillis(requestNanos);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            maxNanos.accumulateAndGet(requestNanos, Math::max);
+        }
+
+        private long maxNanos() {
+            return maxNanos.get();
+        }
+
+        private long cumulativeBucket(int upTo) {
+            long total = 0;
+            for (int i = 0; i <= upTo; i++) {
+                total += buckets.get(i);
+            }
+            return total;
+        }
+    }
+
+}
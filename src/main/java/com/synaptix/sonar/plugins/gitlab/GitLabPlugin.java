@@ -35,9 +35,39 @@ public class GitLabPlugin implements Plugin {
     protected static final String GITLAB_PROJECT_ID = "sonar.gitlab.project_id";
     protected static final String GITLAB_COMMIT_SHA = "sonar.gitlab.commit_sha";
     protected static final String GITLAB_REF_NAME = "sonar.gitlab.ref_name";
+    protected static final String GITLAB_MERGE_REQUEST_IID = "sonar.gitlab.merge_request_iid";
     protected static final String GITLAB_IGNORE_FILE = "sonar.gitlab.ignore_file";
     protected static final String GITLAB_COMMENT_NO_ISSUE = "sonar.gitlab.comment_no_issue";
     protected static final String GITLAB_CUSTOM_BUILDER_NAME = "sonar.gitlab.custom_builder_name";
+    protected static final String GITLAB_PUBLISH_PARALLELISM = "sonar.gitlab.publish_parallelism";
+    protected static final String GITLAB_CONNECT_TIMEOUT = "sonar.gitlab.connect_timeout";
+    protected static final String GITLAB_READ_TIMEOUT = "sonar.gitlab.read_timeout";
+    protected static final String GITLAB_DIFF_SOURCE = "sonar.gitlab.diff_source";
+    protected static final String GITLAB_CLASSIFICATION_PARALLELISM = "sonar.gitlab.classification_parallelism";
+    protected static final String GITLAB_MAX_COMMENT_SIZE = "sonar.gitlab.max_comment_size";
+    protected static final String GITLAB_INPUT_FILE_CACHE = "sonar.gitlab.input_file_cache";
+    protected static final String GITLAB_CACHE_DIR = "sonar.gitlab.cache_dir";
+    protected static final String GITLAB_CACHE_MAX_SIZE = "sonar.gitlab.cache_max_size";
+    protected static final String GITLAB_PREVIOUSLY_REPORTED = "sonar.gitlab.previously_reported";
+    protected static final String GITLAB_RECORD_FILE = "sonar.gitlab.record_file";
+    protected static final String GITLAB_REPLAY_FILE = "sonar.gitlab.replay_file";
+    protected static final String GITLAB_REPLAY_LATENCY_FACTOR = "sonar.gitlab.replay_latency_factor";
+    protected static final String GITLAB_DRY_RUN_FILE = "sonar.gitlab.dry_run_file";
+    protected static final String GITLAB_PUBLISH_TIMEOUT = "sonar.gitlab.publish_timeout";
+    protected static final String GITLAB_CIRCUIT_BREAKER_THRESHOLD = "sonar.gitlab.circuit_breaker_threshold";
+    protected static final String GITLAB_COMMENT_LINE_WINDOW = "sonar.gitlab.comment_line_window";
+    protected static final String GITLAB_MAX_INLINE_COMMENTS_PER_FILE = "sonar.gitlab.max_inline_comments_per_file";
+    protected static final String GITLAB_MAX_INLINE_COMMENTS = "sonar.gitlab.max_inline_comments";
+
+    protected static final String DIFF_SOURCE_API = "api";
+    protected static final String DIFF_SOURCE_LOCAL = "local";
+
+    protected static final String INPUT_FILE_CACHE_ALL = "all";
+    protected static final String INPUT_FILE_CACHE_DIFF = "diff";
+
+    protected static final String PREVIOUSLY_REPORTED_COMMENT = "comment";
+    protected static final String PREVIOUSLY_REPORTED_SKIP = "skip";
+    protected static final String PREVIOUSLY_REPORTED_LINK = "link";
 
     private static final String CATEGORY = "gitlab";
     private static final String INSTANCE_SUBCATEGORY = "instance";
@@ -118,13 +148,207 @@ public class GitLabPlugin implements Plugin {
                     .subCategory(REPORTING_SUBCATEGORY)
                     .type(PropertyType.TEXT)
                     .index(9)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_PUBLISH_PARALLELISM)
+                    .name("Comment publishing parallelism")
+                    .description("Maximum number of inline comments sent to GitLab at the same time.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(4))
+                    .index(10)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_CONNECT_TIMEOUT)
+                    .name("Connect timeout")
+                    .description("Time in milliseconds to wait for a connection to GitLab, 0 to wait forever.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(GitLabHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS))
+                    .index(11)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_READ_TIMEOUT)
+                    .name("Read timeout")
+                    .description("Time in milliseconds to wait for GitLab to answer a request, 0 to wait forever.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(GitLabHttpClient.DEFAULT_READ_TIMEOUT_MILLIS))
+                    .index(12)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_DIFF_SOURCE)
+                    .name("Diff source")
+                    .description("Where to read the lines changed by the commit: \"api\" asks GitLab, \"local\" runs git in the " +
+                            "analysed repository, which handles diffs too large for GitLab but needs the parent commit to be fetched. " +
+                            "Falls back to the API when the local diff cannot be computed.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.SINGLE_SELECT_LIST)
+                    .options(DIFF_SOURCE_API, DIFF_SOURCE_LOCAL)
+                    .defaultValue(DIFF_SOURCE_API)
+                    .index(13)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_CLASSIFICATION_PARALLELISM)
+                    .name("Issue classification parallelism")
+                    .description("Number of threads matching new issues against the commit diff, files are split between them. " +
+                            "The comments and the report are the same as with a single thread. Issues are classified by a single thread " +
+                            "when the number of inline comments on the commit is limited.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(1))
+                    .index(14)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_MAX_COMMENT_SIZE)
+                    .name("Max comment size")
+                    .description("Maximum size in bytes of a comment body, issues that do not fit are summarised with \"... N more\". " +
+                            "GitLab rejects notes longer than 1,000,000 characters.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(CommentWriter.DEFAULT_MAX_BYTES))
+                    .index(15)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_INPUT_FILE_CACHE)
+                    .name("Input file cache")
+                    .description("Which files are indexed during the analysis to match issues with the diff: \"all\" indexes every file, " +
+                            "\"diff\" only the files changed by the commit and looks the others up when an issue needs them, " +
+                            "which is faster on large repositories.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.SINGLE_SELECT_LIST)
+                    .options(INPUT_FILE_CACHE_ALL, INPUT_FILE_CACHE_DIFF)
+                    .defaultValue(INPUT_FILE_CACHE_ALL)
+                    .index(16)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_CACHE_DIR)
+                    .name("Cache directory")
+                    .description("Directory where the project and the changed lines of analysed commits are kept, so that analysing " +
+                            "a commit again does not download them. No cache when empty.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .index(17)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_CACHE_MAX_SIZE)
+                    .name("Cache maximum size")
+                    .description("Maximum size in megabytes of the cache directory, the least recently used commits are removed first.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(BootstrapCache.DEFAULT_MAX_SIZE_MB))
+                    .index(18)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_MERGE_REQUEST_IID)
+                    .name("Merge request IID")
+                    .description("Internal id of the merge request of the analysed commit. When set, issues are matched against the " +
+                            "whole merge request diff and reported as merge request discussions, needs GitLab API v4.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .index(19)
+                    .hidden()
+                    .build(),
+            PropertyDefinition.builder(GITLAB_PREVIOUSLY_REPORTED)
+                    .name("Issues reported on earlier commits")
+                    .description("What to do with an issue already commented on an earlier commit of the same branch: \"comment\" " +
+                            "comments it again, \"skip\" does not, \"link\" lists it in the global comment with a link to the " +
+                            "earlier commit. Needs the ref name and the cache directory, where reported issues are remembered.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.SINGLE_SELECT_LIST)
+                    .options(PREVIOUSLY_REPORTED_COMMENT, PREVIOUSLY_REPORTED_SKIP, PREVIOUSLY_REPORTED_LINK)
+                    .defaultValue(PREVIOUSLY_REPORTED_COMMENT)
+                    .index(20)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_RECORD_FILE)
+                    .name("Record file")
+                    .description("File where every exchange with GitLab is written, to be replayed offline. The user token is not written.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .index(21)
+                    .hidden()
+                    .build(),
+            PropertyDefinition.builder(GITLAB_REPLAY_FILE)
+                    .name("Replay file")
+                    .description("File of recorded exchanges answering the requests instead of GitLab.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .index(22)
+                    .hidden()
+                    .build(),
+            PropertyDefinition.builder(GITLAB_REPLAY_LATENCY_FACTOR)
+                    .name("Replay latency factor")
+                    .description("Multiplier of the recorded latencies when replaying, 0 answers at once and 1 as fast as GitLab did.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .type(PropertyType.FLOAT)
+                    .defaultValue("0")
+                    .index(23)
+                    .hidden()
+                    .build(),
+            PropertyDefinition.builder(GITLAB_DRY_RUN_FILE)
+                    .name("Dry run file")
+                    .description("When set, comments and status updates are written to this file instead of being sent to GitLab.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .index(24)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_PUBLISH_TIMEOUT)
+                    .name("Publish timeout")
+                    .description("Time budget in seconds for publishing to GitLab, 0 for none. Inline comments are sent by decreasing " +
+                            "severity during the first three quarters of it, the ones left are listed in the global comment. " +
+                            "The commit status is set first with the remaining time.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue("0")
+                    .index(25)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_CIRCUIT_BREAKER_THRESHOLD)
+                    .name("Circuit breaker threshold")
+                    .description("Number of consecutive GitLab server or connection errors after which no more inline comments are sent, " +
+                            "0 to never stop.")
+                    .category(CATEGORY)
+                    .subCategory(INSTANCE_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue(String.valueOf(ReviewCommentPublisher.DEFAULT_CIRCUIT_BREAKER_THRESHOLD))
+                    .index(26)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_COMMENT_LINE_WINDOW)
+                    .name("Comment line window")
+                    .description("Issues of a file at most this number of lines after the first line of an inline comment are added " +
+                            "to that comment, 0 for one comment per line.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue("0")
+                    .index(27)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_MAX_INLINE_COMMENTS_PER_FILE)
+                    .name("Max inline comments per file")
+                    .description("Maximum number of inline comments on a file, the issues of the next ones are listed in the global " +
+                            "comment. 0 for no limit.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue("0")
+                    .index(28)
+                    .build(),
+            PropertyDefinition.builder(GITLAB_MAX_INLINE_COMMENTS)
+                    .name("Max inline comments")
+                    .description("Maximum number of inline comments on the commit, the issues of the next ones are listed in the global " +
+                            "comment. 0 for no limit.")
+                    .category(CATEGORY)
+                    .subCategory(REPORTING_SUBCATEGORY)
+                    .type(PropertyType.INTEGER)
+                    .defaultValue("0")
+                    .index(29)
                     .build()
     };
 
     @Override
     public void define(Context context) {
         context.addExtensions(CommitIssuePostJob.class, GitLabPluginConfiguration.class, CommitProjectBuilder.class,
-                CommitFacade.class, InputFileCacheSensor.class, InputFileCache.class, MarkDownUtils.class);
+                CommitFacade.class, InputFileCacheSensor.class, InputFileCache.class, MarkDownUtils.class, GitLabMetrics.class);
         context.addExtensions(Arrays.asList(DEFINITIONS));
     }
 
@@ -19,11 +19,13 @@
  */
 package com.synaptix.sonar.plugins.gitlab;
 
+import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.InstantiationStrategy;
 import org.sonar.api.config.Settings;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
@@ -46,11 +48,24 @@ public class GitLabPluginConfiguration {
         return settings.getString(GitLabPlugin.GITLAB_COMMIT_SHA);
     }
 
+    /**
+     * @return key of the analysed SonarQube project, telling apart the analyses of a commit
+     */
+    public String sonarProjectKey() {
+        String key = settings.getString(CoreProperties.PROJECT_KEY_PROPERTY);
+        return key != null ? key : "";
+    }
+
     @CheckForNull
     public String refName() {
         return settings.getString(GitLabPlugin.GITLAB_REF_NAME);
     }
 
+    @CheckForNull
+    public String mergeRequestIid() {
+        return settings.getString(GitLabPlugin.GITLAB_MERGE_REQUEST_IID);
+    }
+
     @CheckForNull
     public String userToken() {
         return settings.getString(GitLabPlugin.GITLAB_USER_TOKEN);
@@ -85,4 +100,109 @@ public class GitLabPluginConfiguration {
         return settings.getString(GitLabPlugin.GITLAB_CUSTOM_BUILDER_NAME);
     }
 
+    public int publishParallelism() {
+        return Math.max(1, settings.getInt(GitLabPlugin.GITLAB_PUBLISH_PARALLELISM));
+    }
+
+    public int classificationParallelism() {
+        return Math.max(1, settings.getInt(GitLabPlugin.GITLAB_CLASSIFICATION_PARALLELISM));
+    }
+
+    public int maxCommentSize() {
+        return settings.hasKey(GitLabPlugin.GITLAB_MAX_COMMENT_SIZE) ? settings.getInt(GitLabPlugin.GITLAB_MAX_COMMENT_SIZE) : CommentWriter.DEFAULT_MAX_BYTES;
+    }
+
+    public int connectTimeoutMillis() {
+        return settings.hasKey(GitLabPlugin.GITLAB_CONNECT_TIMEOUT) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_CONNECT_TIMEOUT))
+                : GitLabHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    }
+
+    public int readTimeoutMillis() {
+        return settings.hasKey(GitLabPlugin.GITLAB_READ_TIMEOUT) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_READ_TIMEOUT))
+                : GitLabHttpClient.DEFAULT_READ_TIMEOUT_MILLIS;
+    }
+
+    public boolean diffOnlyInputFileCache() {
+        return GitLabPlugin.INPUT_FILE_CACHE_DIFF.equalsIgnoreCase(settings.getString(GitLabPlugin.GITLAB_INPUT_FILE_CACHE));
+    }
+
+    @CheckForNull
+    public String cacheDir() {
+        return emptyToNull(settings.getString(GitLabPlugin.GITLAB_CACHE_DIR));
+    }
+
+    public long cacheMaxBytes() {
+        int megabytes = settings.hasKey(GitLabPlugin.GITLAB_CACHE_MAX_SIZE) ? settings.getInt(GitLabPlugin.GITLAB_CACHE_MAX_SIZE) : BootstrapCache.DEFAULT_MAX_SIZE_MB;
+        return Math.max(0, megabytes) * 1024L * 1024L;
+    }
+
+    /**
+     * @return one of the PREVIOUSLY_REPORTED options, "comment" when unknown
+     */
+    public String previouslyReported() {
+        String value = settings.getString(GitLabPlugin.GITLAB_PREVIOUSLY_REPORTED);
+        if (GitLabPlugin.PREVIOUSLY_REPORTED_SKIP.equalsIgnoreCase(value)) {
+            return GitLabPlugin.PREVIOUSLY_REPORTED_SKIP;
+        }
+        return GitLabPlugin.PREVIOUSLY_REPORTED_LINK.equalsIgnoreCase(value) ? GitLabPlugin.PREVIOUSLY_REPORTED_LINK : GitLabPlugin.PREVIOUSLY_REPORTED_COMMENT;
+    }
+
+    @CheckForNull
+    public String recordFile() {
+        return emptyToNull(settings.getString(GitLabPlugin.GITLAB_RECORD_FILE));
+    }
+
+    @CheckForNull
+    public String replayFile() {
+        return emptyToNull(settings.getString(GitLabPlugin.GITLAB_REPLAY_FILE));
+    }
+
+    public double replayLatencyFactor() {
+        return settings.hasKey(GitLabPlugin.GITLAB_REPLAY_LATENCY_FACTOR) ? settings.getDouble(GitLabPlugin.GITLAB_REPLAY_LATENCY_FACTOR) : 0;
+    }
+
+    @CheckForNull
+    public String dryRunFile() {
+        return emptyToNull(settings.getString(GitLabPlugin.GITLAB_DRY_RUN_FILE));
+    }
+
+    /**
+     * @return 0 when publishing has no time budget
+     */
+    public long publishTimeoutMillis() {
+        return settings.hasKey(GitLabPlugin.GITLAB_PUBLISH_TIMEOUT) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_PUBLISH_TIMEOUT)) * 1000L : 0;
+    }
+
+    public int circuitBreakerThreshold() {
+        return settings.hasKey(GitLabPlugin.GITLAB_CIRCUIT_BREAKER_THRESHOLD) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_CIRCUIT_BREAKER_THRESHOLD))
+                : ReviewCommentPublisher.DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+    }
+
+    public int commentLineWindow() {
+        return settings.hasKey(GitLabPlugin.GITLAB_COMMENT_LINE_WINDOW) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_COMMENT_LINE_WINDOW)) : 0;
+    }
+
+    /**
+     * @return maximum number of inline comments on a file, 0 for no limit
+     */
+    public int maxInlineCommentsPerFile() {
+        return settings.hasKey(GitLabPlugin.GITLAB_MAX_INLINE_COMMENTS_PER_FILE) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_MAX_INLINE_COMMENTS_PER_FILE)) : 0;
+    }
+
+    /**
+     * @return maximum number of inline comments on the commit, 0 for no limit
+     */
+    public int maxInlineComments() {
+        return settings.hasKey(GitLabPlugin.GITLAB_MAX_INLINE_COMMENTS) ? Math.max(0, settings.getInt(GitLabPlugin.GITLAB_MAX_INLINE_COMMENTS)) : 0;
+    }
+
+    public boolean localDiff() {
+        return GitLabPlugin.DIFF_SOURCE_LOCAL.equalsIgnoreCase(settings.getString(GitLabPlugin.GITLAB_DIFF_SOURCE));
+    }
+
+    @CheckForNull
+    private static String emptyToNull(@Nullable String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+
 }
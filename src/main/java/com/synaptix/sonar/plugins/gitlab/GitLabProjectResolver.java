@@ -0,0 +1,182 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.GitlabAPIException;
+import org.gitlab.api.Pagination;
+import org.gitlab.api.models.GitlabProject;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Finds the GitLab project configured with sonar.gitlab.project_id.
+ * <p>
+ * Numeric ids and namespace paths are fetched directly, URLs are reduced to their namespace path first. Only when
+ * that fails (or for names with namespace) are the visible projects searched, page by page, up to the page of the
+ * first match. A fetched project cannot be ambiguous, several matching projects on that page are.
+ */
+public class GitLabProjectResolver {
+
+    private static final Logger logger = Loggers.get(GitLabProjectResolver.class.getName());
+
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private static final String NAME_SEPARATOR = " / ";
+
+    private final GitLabHttpClient httpClient;
+    private final String gitLabUrl;
+
+    public GitLabProjectResolver(GitLabHttpClient httpClient, String gitLabUrl) {
+        this.httpClient = httpClient;
+        this.gitLabUrl = gitLabUrl;
+    }
+
+    /**
+     * Tells if the project is the one referenced by the configured project id, in any of its supported forms.
+     *
+     * @param projectId
+     * @param project
+     * @return
+     */
+    public static boolean matches(String projectId, GitlabProject project) {
+        return projectId.equals(String.valueOf(project.getId())) || projectId.equals(project.getPathWithNamespace()) || projectId.equals(project.getHttpUrl())
+                || projectId.equals(project.getSshUrl()) || projectId.equals(project.getWebUrl()) || projectId.equals(project.getNameWithNamespace());
+    }
+
+    /**
+     * Look up the project. It is resolved once per analysis, then kept by the bootstrap cache when there is one.
+     *
+     * @param projectId
+     * @return
+     * @throws IOException
+     */
+    public GitlabProject resolve(String projectId) throws IOException {
+        GitlabProject project = lookup(projectId);
+        if (project == null) {
+            throw new IllegalStateException("Unable found project for " + projectId);
+        }
+        logger.debug("found matching project with project id: {}", project.getId());
+        return project;
+    }
+
+    @CheckForNull
+    private GitlabProject lookup(String projectId) throws IOException {
+        if (isNumeric(projectId)) {
+            return fetch(projectId);
+        }
+        if (projectId.contains(NAME_SEPARATOR)) {
+            return search(projectId, projectId.substring(projectId.lastIndexOf(NAME_SEPARATOR) + NAME_SEPARATOR.length()));
+        }
+        String path = isUrl(projectId) ? namespacePathOf(projectId) : projectId;
+        if (path != null) {
+            GitlabProject project = fetch(path);
+            if (project != null && matches(projectId, project)) {
+                return project;
+            }
+        }
+        return search(projectId, lastSegmentOf(path != null ? path : projectId));
+    }
+
+    @CheckForNull
+    private GitlabProject fetch(String idOrPath) throws IOException {
+        try {
+            return httpClient.get(GitlabProject.URL + "/" + MarkDownUtils.encodeForUrl(idOrPath), GitlabProject.class);
+        } catch (GitlabAPIException e) {
+            if (e.getResponseCode() == HTTP_NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @CheckForNull
+    private GitlabProject search(String projectId, String term) throws IOException {
+        logger.debug("searching visible projects for {}", projectId);
+        for (int page = 1; ; page++) {
+            GitlabProject[] projects = httpClient.get(GitlabProject.URL + "?search=" + MarkDownUtils.encodeForUrl(term)
+                    + "&per_page=" + Pagination.MAX_ITEMS_PER_PAGE + "&page=" + page, GitlabProject[].class);
+            GitlabProject found = null;
+            for (GitlabProject project : projects) {
+                if (matches(projectId, project)) {
+                    if (found != null) {
+                        throw new IllegalStateException("Multiple found projects for " + projectId);
+                    }
+                    found = project;
+                }
+            }
+            if (found != null || projects.length < Pagination.MAX_ITEMS_PER_PAGE) {
+                return found;
+            }
+        }
+    }
+
+    @CheckForNull
+    private String namespacePathOf(String url) {
+        String path;
+        if (gitLabUrl != null && url.startsWith(withTrailingSlash(gitLabUrl))) {
+            path = url.substring(withTrailingSlash(gitLabUrl).length());
+        } else if (url.startsWith("git@")) {
+            path = url.substring(url.indexOf(':') + 1);
+        } else {
+            try {
+                path = new URI(url).getPath();
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+        if (path == null) {
+            return null;
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.endsWith(".git")) {
+            path = path.substring(0, path.length() - ".git".length());
+        }
+        return path.isEmpty() ? null : path;
+    }
+
+    private static boolean isNumeric(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return !value.isEmpty();
+    }
+
+    private static boolean isUrl(String value) {
+        return value.startsWith("http://") || value.startsWith("https://") || value.startsWith("ssh://") || value.startsWith("git@");
+    }
+
+    private static String lastSegmentOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String withTrailingSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+}
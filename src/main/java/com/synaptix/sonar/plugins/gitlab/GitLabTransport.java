@@ -0,0 +1,76 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sends raw HTTP requests to GitLab. {@link GitLabHttpClient} builds the API semantics (authentication, JSON, errors
+ * and rate limits) on top of it, so that the way requests actually reach the server can be swapped.
+ */
+public interface GitLabTransport {
+
+    /**
+     * Send a request and read the whole response, whatever its status.
+     *
+     * @param method
+     * @param url
+     * @param headers
+     * @param body
+     * @return
+     * @throws IOException when the server could not be reached or the response could not be read
+     */
+    Response execute(String method, String url, Map<String, String> headers, @Nullable byte[] body) throws IOException;
+
+    final class Response {
+
+        private final int status;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final String body;
+
+        public Response(int status, Map<String, String> headers, String body) {
+            this.status = status;
+            this.headers.putAll(headers);
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        @CheckForNull
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+}
@@ -32,17 +32,21 @@ public class GlobalReport {
 
     private static final String[] SEVERITIES = {Severity.BLOCKER, Severity.CRITICAL, Severity.MAJOR, Severity.MINOR, Severity.INFO};
 
-    private final GitLabPluginConfiguration gitLabPluginConfiguration;
     private final MarkDownUtils markDownUtils;
+    private final int maxGlobalIssues;
+    private final int maxCommentSize;
     private int[] newIssuesBySeverity = new int[Severity.ALL.size()];
-    private Map<String, List<String>> notReportedOnDiffMap = new HashMap<>();
-    private int notReportedIssueCount = 0;
+    private final Section notReported = new Section();
+    private int unpublishedIssueCount = 0;
+    private final Section previouslyReported = new Section();
+    private final Section overCommentLimits = new Section();
 
     public GlobalReport(GitLabPluginConfiguration gitLabPluginConfiguration, MarkDownUtils markDownUtils) {
         super();
 
-        this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.markDownUtils = markDownUtils;
+        this.maxGlobalIssues = gitLabPluginConfiguration.maxGlobalIssues();
+        this.maxCommentSize = gitLabPluginConfiguration.maxCommentSize();
     }
 
     private void increment(String severity) {
@@ -55,30 +59,50 @@ public class GlobalReport {
         if (hasNewIssue()) {
             sb.append("\nWatch the comments in this conversation to review them.");
         }
-        if (notReportedIssueCount > 0) {
-            sb.append("\nNote: the following issues could not be reported as comments because they are located on lines that are not displayed in this commit:\n");
+        CommentWriter writer = new CommentWriter(maxCommentSize).append(sb);
+        // At most maxGlobalIssues issues are listed, over all the notes
+        int displayedIssueCount = 0;
+        if (unpublishedIssueCount > 0) {
+            displayedIssueCount += printSection(writer, "\nNote: the following issues could not be reported as comments because they are located on lines that are not displayed in this commit, "
+                    + "or because GitLab did not accept comments in time for " + unpublishedIssueCount + " of them:\n", notReported, displayedIssueCount);
+        } else if (notReported.count > 0) {
+            displayedIssueCount += printSection(writer, "\nNote: the following issues could not be reported as comments because they are located on lines that are not displayed in this commit:\n",
+                    notReported, displayedIssueCount);
+        }
+        if (previouslyReported.count > 0) {
+            displayedIssueCount += printSection(writer, "\nNote: the following issues are not reported as comments because they are already reported on an earlier commit "
+                    + "of this branch, each one links to its commit:\n", previouslyReported, displayedIssueCount);
+        }
+        if (overCommentLimits.count > 0) {
+            printSection(writer, "\nNote: the following issues are not reported as comments because the maximum number of inline comments per file "
+                    + "or per commit is reached:\n", overCommentLimits, displayedIssueCount);
+        }
+        return writer.toString();
+    }
 
-            int notReportedDisplayedIssueCount = 0;
-            int i = 0;
-            for (String severity : SEVERITIES) {
-                List<String> ss = notReportedOnDiffMap.get(severity);
-                if (ss != null && !ss.isEmpty()) {
-                    for (String s : ss) {
-                        if (i < gitLabPluginConfiguration.maxGlobalIssues()) {
-                            sb.append(s).append("\n");
-                        } else {
-                            notReportedDisplayedIssueCount++;
-                        }
-                        i++;
+    /**
+     * @return number of issues listed
+     */
+    private int printSection(CommentWriter writer, String note, Section section, int alreadyDisplayedIssueCount) {
+        writer.append(note);
+        int displayedIssueCount = 0;
+        for (String severity : SEVERITIES) {
+            List<NotReportedIssue> issues = section.bySeverity.get(severity);
+            if (issues != null) {
+                for (NotReportedIssue issue : issues) {
+                    if (alreadyDisplayedIssueCount + displayedIssueCount < maxGlobalIssues && writer.appendEntry(entry ->
+                            markDownUtils.appendGlobalIssue(entry.append("* "), issue.severity, issue.message, issue.ruleKey, issue.gitLabUrl, issue.componentKey).append("\n"))) {
+                        displayedIssueCount++;
                     }
                 }
             }
+        }
 
-            if (notReportedDisplayedIssueCount > 0) {
-                sb.append("* ... ").append(notReportedDisplayedIssueCount).append(" more\n");
-            }
+        int notDisplayedIssueCount = section.count - displayedIssueCount;
+        if (notDisplayedIssueCount > 0) {
+            writer.append("* ... " + notDisplayedIssueCount + " more\n");
         }
-        return sb.toString();
+        return displayedIssueCount;
     }
 
     public String getStatusDescription() {
@@ -147,20 +171,114 @@ public class GlobalReport {
     public void process(Issue issue, @Nullable String gitLabUrl, boolean reportedOnDiff) {
         increment(issue.severity());
         if (!reportedOnDiff) {
-            notReportedIssueCount++;
+            addNotReported(issue, gitLabUrl);
+        }
+    }
 
-            List<String> notReportedOnDiffs = notReportedOnDiffMap.get(issue.severity());
-            if (notReportedOnDiffs == null) {
-                notReportedOnDiffs = new ArrayList<>();
-                notReportedOnDiffMap.put(issue.severity(), notReportedOnDiffs);
-            }
+    private void addNotReported(Issue issue, @Nullable String gitLabUrl) {
+        notReported.add(issue, gitLabUrl, maxGlobalIssues);
+    }
+
+    /**
+     * Move an issue that was to be commented inline to the global comment, its inline comment could not be sent.
+     *
+     * @param issue
+     * @param gitLabUrl
+     */
+    public void unpublished(Issue issue, @Nullable String gitLabUrl) {
+        unpublishedIssueCount++;
+        addNotReported(issue, gitLabUrl);
+    }
+
+    /**
+     * Process an issue on the diff that is not commented because it is already commented on an earlier commit.
+     *
+     * @param issue
+     * @param commitUrl url of the earlier commit
+     */
+    public void previouslyReported(Issue issue, String commitUrl) {
+        increment(issue.severity());
+        previouslyReported.add(issue, commitUrl, maxGlobalIssues);
+    }
+
+    /**
+     * Process an issue on the diff that is not commented because the maximum number of inline comments is reached.
+     *
+     * @param issue
+     * @param gitLabUrl
+     */
+    public void overCommentLimits(Issue issue, @Nullable String gitLabUrl) {
+        increment(issue.severity());
+        overCommentLimits.add(issue, gitLabUrl, maxGlobalIssues);
+    }
 
-            notReportedOnDiffs
-                    .add(new StringBuilder().append("* ").append(markDownUtils.globalIssue(issue.severity(), issue.message(), issue.ruleKey().toString(), gitLabUrl, issue.componentKey())).toString());
+    /**
+     * Add the issues of a report built from the issues following the ones of this report, as if they had been
+     * processed by this report.
+     *
+     * @param other
+     */
+    public void merge(GlobalReport other) {
+        for (int i = 0; i < newIssuesBySeverity.length; i++) {
+            newIssuesBySeverity[i] += other.newIssuesBySeverity[i];
         }
+        unpublishedIssueCount += other.unpublishedIssueCount;
+        notReported.merge(other.notReported, maxGlobalIssues);
+        previouslyReported.merge(other.previouslyReported, maxGlobalIssues);
+        overCommentLimits.merge(other.overCommentLimits, maxGlobalIssues);
     }
 
     public boolean hasNewIssue() {
         return newIssues(Severity.BLOCKER) + newIssues(Severity.CRITICAL) + newIssues(Severity.MAJOR) + newIssues(Severity.MINOR) + newIssues(Severity.INFO) > 0;
     }
+
+    /**
+     * Issues listed under a note of the global comment. Only the first maxGlobalIssues of each severity can be
+     * displayed, the others are just counted.
+     */
+    private static final class Section {
+
+        private final Map<String, List<NotReportedIssue>> bySeverity = new HashMap<>();
+        private int count;
+
+        private void add(Issue issue, @Nullable String gitLabUrl, int maxGlobalIssues) {
+            count++;
+            List<NotReportedIssue> issues = bySeverity.computeIfAbsent(issue.severity(), severity -> new ArrayList<>());
+            if (issues.size() < maxGlobalIssues) {
+                issues.add(new NotReportedIssue(issue.severity(), issue.message(), issue.ruleKey().toString(), gitLabUrl, issue.componentKey()));
+            }
+        }
+
+        private void merge(Section other, int maxGlobalIssues) {
+            count += other.count;
+            for (Map.Entry<String, List<NotReportedIssue>> entry : other.bySeverity.entrySet()) {
+                List<NotReportedIssue> issues = bySeverity.computeIfAbsent(entry.getKey(), severity -> new ArrayList<>());
+                for (NotReportedIssue issue : entry.getValue()) {
+                    if (issues.size() < maxGlobalIssues) {
+                        issues.add(issue);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * What is needed to render an issue in the global comment, without keeping the issue itself.
+     */
+    private static final class NotReportedIssue {
+
+        private final String severity;
+        private final String message;
+        private final String ruleKey;
+        private final String gitLabUrl;
+        private final String componentKey;
+
+        private NotReportedIssue(String severity, String message, String ruleKey, @Nullable String gitLabUrl, String componentKey) {
+            this.severity = severity;
+            this.message = message;
+            this.ruleKey = ruleKey;
+            this.gitLabUrl = gitLabUrl;
+            this.componentKey = componentKey;
+        }
+    }
 }
@@ -21,28 +21,151 @@ package com.synaptix.sonar.plugins.gitlab;
 
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.InstantiationStrategy;
+import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 
 import javax.annotation.CheckForNull;
-import java.util.HashMap;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This is a temporary solution before being able to use new postjob API in SQ 5.2.
+ * <p>
+ * Files are either all put in the cache by {@link InputFileCacheSensor}, or only the ones changed by the commit, the
+ * others being looked up in the file system of their module the first time an issue needs them.
  */
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
 @BatchSide
 public class InputFileCache {
 
-    private final Map<String, InputFile> inputFileByKey = new HashMap<>();
+    private static final CachedFile NOT_FOUND = new CachedFile(null, null);
 
-    void put(String componentKey, InputFile inputFile) {
-        inputFileByKey.put(componentKey, inputFile);
+    private final Map<String, CachedFile> inputFileByKey;
+    private final List<Module> modules = new CopyOnWriteArrayList<>();
+    // Kept up to date by each change of the map, so that it is not scanned to be logged
+    private final LongAdder retainedBytes;
+    // Resolves the files missing from a snapshot
+    private final InputFileCache live;
+
+    public InputFileCache() {
+        this(new ConcurrentHashMap<>(), new LongAdder(), null);
+    }
+
+    private InputFileCache(Map<String, CachedFile> inputFileByKey, LongAdder retainedBytes, @Nullable InputFileCache live) {
+        this.inputFileByKey = inputFileByKey;
+        this.retainedBytes = retainedBytes;
+        this.live = live;
+    }
+
+    /**
+     * Safe to call from several threads, modules can be added concurrently.
+     */
+    void put(String componentKey, InputFile inputFile, @Nullable String path) {
+        CachedFile cachedFile = new CachedFile(inputFile, path);
+        CachedFile previous = inputFileByKey.put(componentKey, cachedFile);
+        retainedBytes.add(retainedBytes(componentKey, cachedFile) - (previous != null ? retainedBytes(componentKey, previous) : 0));
+    }
+
+    /**
+     * Let files of a module that were not put in the cache be looked up on demand.
+     *
+     * @param keyPrefix prefix of the component keys of the module files, followed by their relative path
+     * @param fs
+     * @param gitPrefix path of the module base directory relative to the Git root directory, null if outside of it
+     */
+    void addModule(String keyPrefix, FileSystem fs, @Nullable String gitPrefix) {
+        modules.add(new Module(keyPrefix, fs, gitPrefix));
+    }
+
+    /**
+     * Read-only view for the post job, once the sensors have filled the cache. Nothing is copied: files looked up on
+     * demand are still resolved, and kept, by this cache, and then seen through the view.
+     *
+     * @return
+     */
+    public InputFileCache snapshot() {
+        return new InputFileCache(Collections.unmodifiableMap(inputFileByKey), retainedBytes, live != null ? live : this);
     }
 
     @CheckForNull
     public InputFile byKey(String componentKey) {
-        return inputFileByKey.get(componentKey);
+        return get(componentKey).inputFile;
+    }
+
+    /**
+     * Path of the file relative to the Git root directory, computed once when the file was cached.
+     *
+     * @param componentKey
+     * @return
+     */
+    @CheckForNull
+    public String pathByKey(String componentKey) {
+        return get(componentKey).path;
+    }
+
+    /**
+     * @return number of files in the cache, including the ones looked up on demand
+     */
+    public int size() {
+        return (int) inputFileByKey.values().stream().filter(cachedFile -> cachedFile != NOT_FOUND).count();
+    }
+
+    /**
+     * Approximate heap used by the cached entries: 32 bytes per map node, 24 bytes per entry and 40 bytes plus 2
+     * bytes per char for each key and path. The input files themselves belong to the file system.
+     *
+     * @return
+     */
+    public long retainedBytes() {
+        return retainedBytes.sum();
+    }
+
+    private static long retainedBytes(String componentKey, CachedFile cachedFile) {
+        return 32L + 24L + 40L + 2L * componentKey.length() + (cachedFile.path == null ? 0 : 40L + 2L * cachedFile.path.length());
+    }
+
+    private CachedFile get(@Nullable String componentKey) {
+        if (componentKey == null) {
+            return NOT_FOUND;
+        }
+        CachedFile cachedFile = inputFileByKey.get(componentKey);
+        if (cachedFile == null && live != null) {
+            return live.get(componentKey);
+        }
+        if (cachedFile == null && !modules.isEmpty()) {
+            cachedFile = lookup(componentKey);
+            CachedFile previous = inputFileByKey.putIfAbsent(componentKey, cachedFile);
+            if (previous != null) {
+                cachedFile = previous;
+            } else {
+                retainedBytes.add(retainedBytes(componentKey, cachedFile));
+            }
+        }
+        return cachedFile != null ? cachedFile : NOT_FOUND;
+    }
+
+    private CachedFile lookup(String componentKey) {
+        // Module keys can be prefixes of each other, the longest one is the module of the file
+        Module module = null;
+        for (Module candidate : modules) {
+            if (componentKey.startsWith(candidate.keyPrefix) && (module == null || candidate.keyPrefix.length() > module.keyPrefix.length())) {
+                module = candidate;
+            }
+        }
+        if (module == null) {
+            return NOT_FOUND;
+        }
+        String relativePath = componentKey.substring(module.keyPrefix.length());
+        InputFile inputFile = module.fs.inputFile(module.fs.predicates().hasRelativePath(relativePath));
+        if (inputFile == null) {
+            return NOT_FOUND;
+        }
+        return new CachedFile(inputFile, module.gitPath(relativePath));
     }
 
     @Override
@@ -50,4 +173,36 @@ public class InputFileCache {
         return "GitLab Plugin InputFile Cache";
     }
 
+    private static final class CachedFile {
+
+        private final InputFile inputFile;
+        private final String path;
+
+        private CachedFile(@Nullable InputFile inputFile, @Nullable String path) {
+            this.inputFile = inputFile;
+            this.path = path;
+        }
+    }
+
+    private static final class Module {
+
+        private final String keyPrefix;
+        private final FileSystem fs;
+        private final String gitPrefix;
+
+        private Module(String keyPrefix, FileSystem fs, @Nullable String gitPrefix) {
+            this.keyPrefix = keyPrefix;
+            this.fs = fs;
+            this.gitPrefix = gitPrefix;
+        }
+
+        @CheckForNull
+        private String gitPath(String relativePath) {
+            if (gitPrefix == null) {
+                return null;
+            }
+            return gitPrefix.isEmpty() ? relativePath : gitPrefix + "/" + relativePath;
+        }
+    }
+
 }
@@ -24,20 +24,32 @@ import org.sonar.api.batch.SensorContext;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.resources.Project;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * This is a temporary solution before being able to use new postjob API in SQ 5.2.
  */
 public class InputFileCacheSensor implements Sensor {
 
+    private static final Logger logger = Loggers.get(InputFileCacheSensor.class.getName());
+    private static final int PARALLEL_THRESHOLD = 1000;
+
     private final GitLabPluginConfiguration gitLabPluginConfiguration;
     private final FileSystem fs;
     private final InputFileCache inputFileCache;
+    private final CommitFacade commitFacade;
 
-    public InputFileCacheSensor(GitLabPluginConfiguration gitLabPluginConfiguration, FileSystem fs, InputFileCache inputFileCache) {
+    public InputFileCacheSensor(GitLabPluginConfiguration gitLabPluginConfiguration, FileSystem fs, InputFileCache inputFileCache, CommitFacade commitFacade) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.fs = fs;
         this.inputFileCache = inputFileCache;
+        this.commitFacade = commitFacade;
     }
 
     @Override
@@ -47,9 +59,46 @@ public class InputFileCacheSensor implements Sensor {
 
     @Override
     public void analyse(Project module, SensorContext context) {
-        for (InputFile inputFile : fs.inputFiles(fs.predicates().all())) {
-            inputFileCache.put(context.getResource(inputFile).getEffectiveKey(), inputFile);
+        long start = System.currentTimeMillis();
+        int indexed = 0;
+        if (gitLabPluginConfiguration.diffOnlyInputFileCache()) {
+            String keyPrefix = module.getEffectiveKey() + ":";
+            String gitPrefix = commitFacade.getPath(fs.baseDir());
+            inputFileCache.addModule(keyPrefix, fs, gitPrefix);
+            if (gitPrefix != null) {
+                for (String path : commitFacade.getChangedFiles()) {
+                    String relativePath = relativeToModule(gitPrefix, path);
+                    InputFile inputFile = relativePath != null ? fs.inputFile(fs.predicates().hasRelativePath(relativePath)) : null;
+                    if (inputFile != null) {
+                        inputFileCache.put(keyPrefix + relativePath, inputFile, path);
+                        indexed++;
+                    }
+                }
+            }
+        } else {
+            List<InputFile> inputFiles = new ArrayList<>();
+            fs.inputFiles(fs.predicates().all()).forEach(inputFiles::add);
+            // The sensor context is not thread safe, keys are resolved on the sensor thread
+            List<String> keys = new ArrayList<>(inputFiles.size());
+            for (InputFile inputFile : inputFiles) {
+                keys.add(context.getResource(inputFile).getEffectiveKey());
+            }
+            // Resolving the Git path only reads the file names, those of large modules are resolved in parallel
+            IntStream indexes = IntStream.range(0, inputFiles.size());
+            (inputFiles.size() >= PARALLEL_THRESHOLD ? indexes.parallel() : indexes).forEach(i ->
+                    inputFileCache.put(keys.get(i), inputFiles.get(i), commitFacade.getPath(inputFiles.get(i))));
+            indexed = inputFiles.size();
+        }
+        logger.info("{} files of module {} added to the GitLab input file cache in {} ms, cache holds ~{} bytes",
+                indexed, module.getKey(), System.currentTimeMillis() - start, inputFileCache.retainedBytes());
+    }
+
+    @CheckForNull
+    private static String relativeToModule(String gitPrefix, String path) {
+        if (gitPrefix.isEmpty()) {
+            return path;
         }
+        return path.startsWith(gitPrefix + "/") ? path.substring(gitPrefix.length() + 1) : null;
     }
 
     @Override
@@ -0,0 +1,74 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.gitlab.api.GitlabAPI;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Files of one JSON document per line, appended to while GitLab is talked to, so that a crash keeps every line
+ * written before it.
+ */
+final class JsonLines {
+
+    private final Path file;
+
+    /**
+     * @param file emptied, its directory is created when missing
+     */
+    JsonLines(Path file) throws IOException {
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Files.write(file, new byte[0]);
+    }
+
+    synchronized void append(Object line) throws IOException {
+        byte[] json = GitlabAPI.MAPPER.writeValueAsBytes(line);
+        byte[] bytes = new byte[json.length + 1];
+        System.arraycopy(json, 0, bytes, 0, json.length);
+        bytes[json.length] = '\n';
+        Files.write(file, bytes, StandardOpenOption.APPEND);
+    }
+
+    static List<JsonNode> read(Path file) throws IOException {
+        List<JsonNode> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(GitlabAPI.MAPPER.readTree(line));
+                }
+            }
+        }
+        return lines;
+    }
+
+}
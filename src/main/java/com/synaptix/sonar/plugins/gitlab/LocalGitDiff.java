@@ -0,0 +1,255 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.apache.commons.io.IOUtils;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Computes the changed lines of a commit from the local Git repository instead of the GitLab API, which truncates
+ * or leaves out large diffs. The commit is compared to its first parent, as GitLab does, with rename detection and
+ * the default three lines of context. Both are asked explicitly so that the diff.context and diff.renames settings of
+ * the repository do not make the index differ from the one built from the API.
+ * <p>
+ * Needs the git executable and the parent commit: in a shallow clone cut right after the commit, the diff cannot be
+ * computed and an {@link IOException} is thrown.
+ */
+public class LocalGitDiff {
+
+    private static final Logger logger = Loggers.get(LocalGitDiff.class.getName());
+
+    private static final String DIFF_HEADER = "diff --git ";
+    private static final String NEW_FILE_PREFIX = "+++ ";
+    private static final String DEV_NULL = "/dev/null";
+
+    private final File gitBaseDir;
+    private final String gitExecutable;
+
+    public LocalGitDiff(File gitBaseDir) {
+        this(gitBaseDir, "git");
+    }
+
+    public LocalGitDiff(File gitBaseDir, String gitExecutable) {
+        this.gitBaseDir = gitBaseDir;
+        this.gitExecutable = gitExecutable;
+    }
+
+    /**
+     * @param commitSHA
+     * @return lines added or kept as context by the commit, for every file it touches
+     * @throws IOException if git fails or the parent commit is not available
+     */
+    public ChangedLineIndex changedLines(String commitSHA) throws IOException {
+        String parent = parentOf(commitSHA);
+        ChangedLineIndex.Builder builder = ChangedLineIndex.builder();
+
+        byte[] names = run("diff", "-z", "--name-status", "--find-renames", "--no-ext-diff", parent, commitSHA);
+        for (String path : changedPaths(names)) {
+            builder.file(path);
+        }
+
+        run(this::readPatches, builder, "diff", "--no-color", "--no-ext-diff", "--no-textconv", "--find-renames", "-U3", "--src-prefix=a/",
+                "--dst-prefix=b/", parent, commitSHA);
+        return builder.build();
+    }
+
+    private String parentOf(String commitSHA) throws IOException {
+        String[] commits = new String(run("rev-list", "--parents", "-n", "1", commitSHA, "--"), StandardCharsets.UTF_8).trim().split(" ");
+        if (commits.length > 1) {
+            return commits[1];
+        }
+        if (isShallowBoundary(commits[0])) {
+            throw new IOException("Parent of commit " + commitSHA + " is not available in this shallow clone");
+        }
+        logger.debug("Commit {} has no parent, comparing it to the empty tree", commitSHA);
+        return new String(run("hash-object", "-t", "tree", "--stdin"), StandardCharsets.UTF_8).trim();
+    }
+
+    private boolean isShallowBoundary(String commit) throws IOException {
+        File shallow = new File(new String(run("rev-parse", "--git-path", "shallow"), StandardCharsets.UTF_8).trim());
+        if (!shallow.isAbsolute()) {
+            shallow = new File(gitBaseDir, shallow.getPath());
+        }
+        return shallow.exists() && Files.readAllLines(shallow.toPath(), StandardCharsets.UTF_8).contains(commit);
+    }
+
+    /**
+     * Paths after the commit from "git diff -z --name-status": the new path for renames and copies, the old one for
+     * deletions, like the new_path of the GitLab API.
+     */
+    static List<String> changedPaths(byte[] nameStatus) {
+        List<String> paths = new ArrayList<>();
+        List<String> fields = Arrays.asList(new String(nameStatus, StandardCharsets.UTF_8).split("\0"));
+        for (int i = 0; i < fields.size(); i++) {
+            String status = fields.get(i);
+            if (status.isEmpty()) {
+                continue;
+            }
+            boolean twoPaths = status.charAt(0) == 'R' || status.charAt(0) == 'C';
+            i += twoPaths ? 2 : 1;
+            if (i < fields.size()) {
+                paths.add(fields.get(i));
+            }
+        }
+        return paths;
+    }
+
+    private void readPatches(InputStream in, ChangedLineIndex.Builder builder) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        StringBuilder patch = new StringBuilder();
+        String path = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(DIFF_HEADER)) {
+                parse(builder, path, patch);
+                path = null;
+                patch.setLength(0);
+            } else if (path == null && patch.length() == 0 && line.startsWith(NEW_FILE_PREFIX)) {
+                path = newPath(line.substring(NEW_FILE_PREFIX.length()));
+            } else if (path != null) {
+                patch.append(line).append('\n');
+            }
+        }
+        parse(builder, path, patch);
+    }
+
+    private static void parse(ChangedLineIndex.Builder builder, String path, StringBuilder patch) {
+        if (path != null && patch.length() > 0) {
+            PatchParser.parse(patch, builder.file(path));
+        }
+    }
+
+    private static String newPath(String header) {
+        String path = header.endsWith("\t") ? header.substring(0, header.length() - 1) : header;
+        if (path.startsWith("\"")) {
+            path = unquote(path);
+        }
+        if (DEV_NULL.equals(path)) {
+            return null;
+        }
+        return path.startsWith("b/") ? path.substring(2) : path;
+    }
+
+    /**
+     * Undo the C-style quoting git applies to paths with special characters.
+     */
+    static String unquote(String quoted) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 1; i < quoted.length() - 1; i++) {
+            char c = quoted.charAt(i);
+            if (c != '\\') {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                continue;
+            }
+            char escaped = quoted.charAt(++i);
+            switch (escaped) {
+                case 'a':
+                    bytes.write(7);
+                    break;
+                case 'b':
+                    bytes.write('\b');
+                    break;
+                case 'f':
+                    bytes.write('\f');
+                    break;
+                case 'n':
+                    bytes.write('\n');
+                    break;
+                case 'r':
+                    bytes.write('\r');
+                    break;
+                case 't':
+                    bytes.write('\t');
+                    break;
+                case 'v':
+                    bytes.write(11);
+                    break;
+                default:
+                    if (escaped >= '0' && escaped <= '7') {
+                        bytes.write(Integer.parseInt(quoted.substring(i, i + 3), 8));
+                        i += 2;
+                    } else {
+                        bytes.write(escaped);
+                    }
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] run(String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        run((in, target) -> IOUtils.copy(in, target), out, args);
+        return out.toByteArray();
+    }
+
+    private <T> void run(OutputReader<T> outputReader, T target, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(gitExecutable);
+        command.add("-c");
+        command.add("core.quotepath=off");
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).directory(gitBaseDir).start();
+        process.getOutputStream().close();
+        CompletableFuture<String> error = CompletableFuture.supplyAsync(() -> {
+            try (InputStream err = process.getErrorStream()) {
+                return IOUtils.toString(err, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return "";
+            }
+        });
+        try (InputStream in = process.getInputStream()) {
+            outputReader.read(in, target);
+            // Drain what the reader left so that git never blocks on a full pipe
+            IOUtils.skip(in, Long.MAX_VALUE);
+        }
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Command '" + String.join(" ", command) + "' failed with exit code " + exitCode + ": " + error.join().trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new IOException("Interrupted while running git", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface OutputReader<T> {
+        void read(InputStream in, T target) throws IOException;
+    }
+
+}
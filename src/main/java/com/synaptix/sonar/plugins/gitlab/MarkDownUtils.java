@@ -31,6 +31,7 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
@@ -41,12 +42,11 @@ public class MarkDownUtils {
 
     private static final Map<String, String> SEVERITY_EMOJI_MAPPINGS = new HashMap<>();
 
-    private static final String TEMPLATE_GLOBAL_ISSUE = "%s %s (%s) %s";
-
-    private static final String TEMPLATE_GLOBAL_ISSUE_URL = "%s [%s](%s) %s";
-
     private final String ruleUrlPrefix;
 
+    // A project has a few hundred rules for tens of thousands of issues
+    private final Map<String, String> ruleLinks = new ConcurrentHashMap<>();
+
     static {
         SEVERITY_EMOJI_MAPPINGS.put(Severity.BLOCKER, ":no_entry:");
         SEVERITY_EMOJI_MAPPINGS.put(Severity.CRITICAL, ":no_entry_sign:");
@@ -115,13 +115,24 @@ public class MarkDownUtils {
      * @return
      */
     public String inlineIssue(final String severity, final String message, final String ruleKey) {
+        return appendInlineIssue(new StringBuilder(), severity, message, ruleKey).toString();
+    }
+
+    /**
+     * Same as {@link #inlineIssue(String, String, String)}, appending to an existing builder.
+     *
+     * @param sb
+     * @param severity
+     * @param message
+     * @param ruleKey
+     * @return the builder
+     */
+    public StringBuilder appendInlineIssue(final StringBuilder sb, final String severity, final String message, final String ruleKey) {
         checkNotNull(severity, "severity must not be null");
         checkNotNull(message, "message must not be null");
         checkNotNull(ruleKey, "ruleKey must not be null");
 
-        final String ruleLink = getRuleLink(ruleKey);
-
-        return String.format("%s %s %s", getEmojiForSeverity(severity), message, ruleLink);
+        return sb.append(getEmojiForSeverity(severity)).append(' ').append(message).append(' ').append(getRuleLink(ruleKey));
     }
 
     /**
@@ -136,19 +147,34 @@ public class MarkDownUtils {
      */
     public String globalIssue(final String severity, final String message, final String ruleKey,
                               final @Nullable String url, final String componentKey) {
+        return appendGlobalIssue(new StringBuilder(), severity, message, ruleKey, url, componentKey).toString();
+    }
+
+    /**
+     * Same as {@link #globalIssue(String, String, String, String, String)}, appending to an existing builder.
+     *
+     * @param sb
+     * @param severity
+     * @param message
+     * @param ruleKey
+     * @param url
+     * @param componentKey
+     * @return the builder
+     */
+    public StringBuilder appendGlobalIssue(final StringBuilder sb, final String severity, final String message, final String ruleKey,
+                                           final @Nullable String url, final String componentKey) {
         checkNotNull(severity, "severity must not be null");
         checkNotNull(message, "message must not be null");
         checkNotNull(ruleKey, "ruleKey must not be null");
         checkNotNull(componentKey, "componentKey must not be null");
 
-        final String ruleLink = getRuleLink(ruleKey);
-        final String severityEmoji = getEmojiForSeverity(severity);
-
+        sb.append(getEmojiForSeverity(severity)).append(' ');
         if (url == null) {
-            return String.format(TEMPLATE_GLOBAL_ISSUE, severityEmoji, message, componentKey, ruleLink);
+            sb.append(message).append(" (").append(componentKey).append(')');
         } else {
-            return String.format(TEMPLATE_GLOBAL_ISSUE_URL, severityEmoji, message, url, ruleLink);
+            sb.append('[').append(message).append("](").append(url).append(')');
         }
+        return sb.append(' ').append(getRuleLink(ruleKey));
     }
 
     /**
@@ -160,7 +186,12 @@ public class MarkDownUtils {
     public String getRuleLink(String ruleKey) {
         checkNotNull(ruleKey, "ruleKey must not be null");
 
-        return "[:blue_book:](" + ruleUrlPrefix + "coding_rules#rule_key=" + encodeForUrl(ruleKey) + ")";
+        String ruleLink = ruleLinks.get(ruleKey);
+        if (ruleLink == null) {
+            ruleLink = "[:blue_book:](" + ruleUrlPrefix + "coding_rules#rule_key=" + encodeForUrl(ruleKey) + ")";
+            ruleLinks.put(ruleKey, ruleLink);
+        }
+        return ruleLink;
     }
 
     private void checkNotNull(final Object value, final String description) {
@@ -0,0 +1,182 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.Pagination;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Latest diff version of a merge request, with the API v4 calls reviewing it: issues on any line changed by the
+ * merge request are commented as discussions positioned on that diff, like reviewers see it.
+ */
+public class MergeRequest {
+
+    private static final Logger logger = Loggers.get(MergeRequest.class.getName());
+
+    private final GitLabHttpClient httpClient;
+    private final String url;
+    private final String baseSha;
+    private final String startSha;
+    private final String headSha;
+    private final ChangedLineIndex changedLines;
+    // Renamed files need their old path in positions
+    private final Map<String, String> oldPaths;
+    // Unmodified lines need their old line in positions: runs by first new line, holding their last new line and first old line
+    private final Map<String, NavigableMap<Integer, int[]>> unmodifiedLines;
+
+    private MergeRequest(GitLabHttpClient httpClient, String url, String baseSha, String startSha, String headSha, ChangedLineIndex changedLines,
+                         Map<String, String> oldPaths, Map<String, NavigableMap<Integer, int[]>> unmodifiedLines) {
+        this.httpClient = httpClient;
+        this.url = url;
+        this.baseSha = baseSha;
+        this.startSha = startSha;
+        this.headSha = headSha;
+        this.changedLines = changedLines;
+        this.oldPaths = oldPaths;
+        this.unmodifiedLines = unmodifiedLines;
+    }
+
+    /**
+     * Fetch the changes of the merge request, once.
+     *
+     * @param httpClient client of the API v4
+     * @param projectId
+     * @param iid
+     * @return
+     * @throws IOException
+     */
+    public static MergeRequest load(GitLabHttpClient httpClient, Integer projectId, String iid) throws IOException {
+        String url = "/projects/" + projectId + "/merge_requests/" + MarkDownUtils.encodeForUrl(iid);
+        JsonNode changes = GitlabAPI.MAPPER.readTree(httpClient.get(url + "/changes"));
+        if (changes.path("overflow").asBoolean()) {
+            logger.warn("Diff of merge request !{} is too large for GitLab, issues on the missing files will be in the global comment", iid);
+        }
+
+        ChangedLineIndex.Builder builder = ChangedLineIndex.builder();
+        Map<String, String> oldPaths = new HashMap<>();
+        Map<String, NavigableMap<Integer, int[]>> unmodifiedLines = new HashMap<>();
+        for (JsonNode change : changes.path("changes")) {
+            String newPath = change.path("new_path").asText();
+            String oldPath = change.path("old_path").asText(newPath);
+            if (!oldPath.equals(newPath)) {
+                oldPaths.put(newPath, oldPath);
+            }
+            PatchParser.LineRangeConsumer fileLines = builder.file(newPath);
+            if (change.hasNonNull("diff")) {
+                NavigableMap<Integer, int[]> fileUnmodifiedLines = new TreeMap<>();
+                PatchParser.parse(change.get("diff").asText(), fileLines,
+                        (firstLine, lastLine, firstOldLine) -> fileUnmodifiedLines.put(firstLine, new int[]{lastLine, firstOldLine}));
+                unmodifiedLines.put(newPath, fileUnmodifiedLines);
+            }
+        }
+        JsonNode diffRefs = changes.path("diff_refs");
+        return new MergeRequest(httpClient, url, diffRefs.path("base_sha").asText(null), diffRefs.path("start_sha").asText(null),
+                diffRefs.path("head_sha").asText(null), builder.build(), oldPaths, unmodifiedLines);
+    }
+
+    public String getHeadSha() {
+        return headSha;
+    }
+
+    public ChangedLineIndex getChangedLines() {
+        return changedLines;
+    }
+
+    /**
+     * Notes already on the merge request, positioned ones with their path and line.
+     *
+     * @return
+     * @throws IOException
+     */
+    public CommitCommentIndex loadExistingComments() throws IOException {
+        CommitCommentIndex index = new CommitCommentIndex();
+        for (int page = 1; ; page++) {
+            JsonNode discussions = GitlabAPI.MAPPER.readTree(httpClient.get(
+                    url + "/discussions?per_page=" + Pagination.MAX_ITEMS_PER_PAGE + "&page=" + page));
+            for (JsonNode discussion : discussions) {
+                for (JsonNode note : discussion.path("notes")) {
+                    JsonNode position = note.path("position");
+                    if (position.hasNonNull("new_path") && position.hasNonNull("new_line")) {
+                        index.add(position.get("new_path").asText(), position.get("new_line").asInt(), note.path("body").asText());
+                    } else {
+                        index.add(null, null, note.path("body").asText());
+                    }
+                }
+            }
+            if (discussions.size() < Pagination.MAX_ITEMS_PER_PAGE) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Start a discussion on a line of the new version of a file. GitLab only accepts a discussion on an unmodified line
+     * with its line number in both versions.
+     *
+     * @param path
+     * @param line
+     * @param body
+     * @throws IOException
+     */
+    public void createDiscussion(String path, int line, String body) throws IOException {
+        Map<String, Object> position = new HashMap<>();
+        position.put("position_type", "text");
+        position.put("base_sha", baseSha);
+        position.put("start_sha", startSha);
+        position.put("head_sha", headSha);
+        position.put("old_path", oldPaths.getOrDefault(path, path));
+        position.put("new_path", path);
+        position.put("new_line", line);
+        Integer oldLine = oldLine(path, line);
+        if (oldLine != null) {
+            position.put("old_line", oldLine);
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("body", body);
+        data.put("position", position);
+        httpClient.post(url + "/discussions", data);
+    }
+
+    @CheckForNull
+    private Integer oldLine(String path, int line) {
+        NavigableMap<Integer, int[]> fileUnmodifiedLines = unmodifiedLines.get(path);
+        Map.Entry<Integer, int[]> run = fileUnmodifiedLines != null ? fileUnmodifiedLines.floorEntry(line) : null;
+        if (run == null || line > run.getValue()[0]) {
+            return null;
+        }
+        return run.getValue()[1] + line - run.getKey();
+    }
+
+    public void createNote(String body) throws IOException {
+        httpClient.post(url + "/notes", Collections.singletonMap("body", body));
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import javax.annotation.Nullable;
+
+/**
+ * Single pass reader of unified diff hunks (http://en.wikipedia.org/wiki/Diff_utility#Unified_format).
+ * <p>
+ * The patch is scanned in place: no line is copied and hunk headers are read without regular expressions. Added and
+ * unmodified lines are reported as ranges of line numbers in the new version of the file.
+ */
+public final class PatchParser {
+
+    private PatchParser() {
+        // only static methods
+    }
+
+    /**
+     * Receives each run of consecutive new-side lines found in a patch, in ascending order.
+     */
+    @FunctionalInterface
+    public interface LineRangeConsumer {
+
+        void accept(int firstLine, int lastLine);
+
+    }
+
+    /**
+     * Receives each run of consecutive unmodified lines found in a patch, in ascending order, with the line number
+     * the first one has in the old version of the file.
+     */
+    @FunctionalInterface
+    public interface UnmodifiedRangeConsumer {
+
+        void accept(int firstLine, int lastLine, int firstOldLine);
+
+    }
+
+    /**
+     * Report the added and unmodified lines of the patch to the consumer.
+     *
+     * @param patch
+     * @param consumer
+     */
+    public static void parse(CharSequence patch, LineRangeConsumer consumer) {
+        parse(patch, consumer, null);
+    }
+
+    /**
+     * Same as {@link #parse(CharSequence, LineRangeConsumer)}, the unmodified lines being also reported with their old
+     * line numbers, which GitLab needs to position a discussion on them.
+     *
+     * @param patch
+     * @param consumer
+     * @param unmodifiedConsumer
+     */
+    public static void parse(CharSequence patch, LineRangeConsumer consumer, @Nullable UnmodifiedRangeConsumer unmodifiedConsumer) {
+        final int length = patch.length();
+        final int[] hunkStart = new int[2];
+        int currentLine = -1;
+        int currentOldLine = -1;
+        int rangeStart = -1;
+        int rangeEnd = -1;
+        int unmodifiedStart = -1;
+        int unmodifiedEnd = -1;
+        int unmodifiedOldStart = -1;
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && patch.charAt(end) != '\n' && patch.charAt(end) != '\r') {
+                end++;
+            }
+            if (end > start) {
+                char first = patch.charAt(start);
+                if (first != ' ' && unmodifiedStart >= 0) {
+                    unmodifiedConsumer.accept(unmodifiedStart, unmodifiedEnd, unmodifiedOldStart);
+                    unmodifiedStart = -1;
+                }
+                if (first == '@') {
+                    parseHunkStart(patch, start, end, hunkStart);
+                    currentOldLine = hunkStart[0];
+                    currentLine = hunkStart[1];
+                } else if (first == '-' && currentLine >= 0) {
+                    currentOldLine++;
+                } else if ((first == '+' || first == ' ') && currentLine >= 0) {
+                    if (first == ' ' && unmodifiedConsumer != null) {
+                        if (unmodifiedStart < 0) {
+                            unmodifiedStart = currentLine;
+                            unmodifiedOldStart = currentOldLine;
+                        }
+                        unmodifiedEnd = currentLine;
+                        currentOldLine++;
+                    }
+                    // Count added and unmodified lines, removed lines and "\ No newline at end of file" are skipped
+                    if (currentLine != rangeEnd + 1 || rangeStart < 0) {
+                        if (rangeStart >= 0) {
+                            consumer.accept(rangeStart, rangeEnd);
+                        }
+                        rangeStart = currentLine;
+                    }
+                    rangeEnd = currentLine;
+                    currentLine++;
+                }
+            }
+            if (end < length && patch.charAt(end) == '\r' && end + 1 < length && patch.charAt(end + 1) == '\n') {
+                end++;
+            }
+            start = end + 1;
+        }
+        if (rangeStart >= 0) {
+            consumer.accept(rangeStart, rangeEnd);
+        }
+        if (unmodifiedStart >= 0) {
+            unmodifiedConsumer.accept(unmodifiedStart, unmodifiedEnd, unmodifiedOldStart);
+        }
+    }
+
+    /**
+     * Read the first old-side and new-side line numbers of a "@@ -a[,b] +c[,d] @@" header.
+     *
+     * @param starts receives a then c
+     */
+    private static void parseHunkStart(CharSequence patch, int start, int end, int[] starts) {
+        int i = start;
+        i = expect(patch, i, end, '@');
+        i = expect(patch, i, end, '@');
+        i = expectSpace(patch, i, end);
+        i = expect(patch, i, end, '-');
+        i = readRange(patch, i, end, starts, 0);
+        i = expectSpace(patch, i, end);
+        i = expect(patch, i, end, '+');
+        i = readRange(patch, i, end, starts, 1);
+        i = expectSpace(patch, i, end);
+        i = expect(patch, i, end, '@');
+        i = expect(patch, i, end, '@');
+        if (i < 0) {
+            throw new IllegalStateException("Unable to parse patch line " + patch.subSequence(start, end) + "\nFull patch: \n" + patch);
+        }
+    }
+
+    /**
+     * Read the first line number of a "n[,count]" range into starts[index].
+     */
+    private static int readRange(CharSequence patch, int i, int end, int[] starts, int index) {
+        if (i < 0) {
+            return -1;
+        }
+        int first = 0;
+        int next = i;
+        while (next < end && isDigit(patch.charAt(next))) {
+            first = first * 10 + (patch.charAt(next) - '0');
+            next++;
+        }
+        if (next == i || next - i > 9) {
+            return -1;
+        }
+        starts[index] = first;
+        if (next < end && patch.charAt(next) == ',') {
+            next = skipDigits(patch, next + 1, end);
+        }
+        return next;
+    }
+
+    private static int skipDigits(CharSequence patch, int i, int end) {
+        if (i < 0) {
+            return -1;
+        }
+        int next = i;
+        while (next < end && isDigit(patch.charAt(next))) {
+            next++;
+        }
+        return next == i ? -1 : next;
+    }
+
+    private static int expect(CharSequence patch, int i, int end, char expected) {
+        return i >= 0 && i < end && patch.charAt(i) == expected ? i + 1 : -1;
+    }
+
+    private static int expectSpace(CharSequence patch, int i, int end) {
+        if (i < 0 || i >= end) {
+            return -1;
+        }
+        char c = patch.charAt(i);
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\f' ? i + 1 : -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
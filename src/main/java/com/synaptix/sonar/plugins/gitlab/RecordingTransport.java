@@ -0,0 +1,78 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends requests through another transport and writes every exchange to a file, one JSON line per exchange, to be
+ * replayed offline by {@link ReplayTransport}.
+ * <p>
+ * Lines hold the method, the path and query of the URL, the request body, the status, the headers and the body of the
+ * response and how long it took. Request headers are not written, they hold the user token.
+ */
+public class RecordingTransport implements GitLabTransport {
+
+    private final GitLabTransport delegate;
+    private final JsonLines exchanges;
+
+    /**
+     * @param file emptied before the first exchange is written
+     */
+    public RecordingTransport(GitLabTransport delegate, Path file) throws IOException {
+        this.delegate = delegate;
+        this.exchanges = new JsonLines(file);
+    }
+
+    @Override
+    public Response execute(String method, String url, Map<String, String> headers, @Nullable byte[] body) throws IOException {
+        long start = System.nanoTime();
+        Response response = delegate.execute(method, url, headers, body);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        Map<String, Object> exchange = new LinkedHashMap<>();
+        exchange.put("method", method);
+        exchange.put("url", pathAndQuery(url));
+        if (body != null) {
+            exchange.put("requestBody", new String(body, StandardCharsets.UTF_8));
+        }
+        exchange.put("status", response.getStatus());
+        exchange.put("headers", response.getHeaders());
+        exchange.put("body", response.getBody());
+        exchange.put("millis", millis);
+        exchanges.append(exchange);
+        return response;
+    }
+
+    /**
+     * Exchanges are matched without the GitLab host, so that they can be replayed against any URL.
+     */
+    static String pathAndQuery(String url) {
+        URI uri = URI.create(url);
+        return uri.getRawQuery() != null ? uri.getRawPath() + "?" + uri.getRawQuery() : uri.getRawPath();
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests from the exchanges written by {@link RecordingTransport}, without any network, so that the plugin
+ * can be run and benchmarked offline against data recorded on a real GitLab.
+ * <p>
+ * Requests are matched on their method, path and query. When the same request was recorded several times, the
+ * answers are given in the recorded order and the last one is repeated. A GET that was never recorded is answered 404,
+ * another method is answered 201 as if GitLab had accepted it. Recorded latencies are replayed multiplied by a factor,
+ * 0 answering at once.
+ */
+public class ReplayTransport implements GitLabTransport {
+
+    private static final Logger logger = Loggers.get(ReplayTransport.class.getName());
+    private static final int HTTP_CREATED = 201;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private final Map<String, Deque<JsonNode>> exchanges;
+    private final double latencyFactor;
+
+    private ReplayTransport(Map<String, Deque<JsonNode>> exchanges, double latencyFactor) {
+        this.exchanges = exchanges;
+        this.latencyFactor = latencyFactor;
+    }
+
+    public static ReplayTransport load(Path file, double latencyFactor) throws IOException {
+        Map<String, Deque<JsonNode>> exchanges = new HashMap<>();
+        for (JsonNode exchange : JsonLines.read(file)) {
+            exchanges.computeIfAbsent(key(exchange.path("method").asText(), exchange.path("url").asText()), key -> new ArrayDeque<>()).add(exchange);
+        }
+        logger.info("Replaying GitLab exchanges from {}", file);
+        return new ReplayTransport(exchanges, Math.max(0, latencyFactor));
+    }
+
+    @Override
+    public Response execute(String method, String url, Map<String, String> headers, @Nullable byte[] body) throws IOException {
+        String key = key(method, RecordingTransport.pathAndQuery(url));
+        JsonNode exchange = next(key);
+        if (exchange == null) {
+            logger.debug("No recorded GitLab exchange for {}", key);
+            return "GET".equals(method) ? new Response(HTTP_NOT_FOUND, Collections.emptyMap(), "{\"message\":\"404 Not recorded\"}")
+                    : new Response(HTTP_CREATED, Collections.emptyMap(), "{}");
+        }
+        sleep((long) (exchange.path("millis").asLong() * latencyFactor));
+
+        Map<String, String> responseHeaders = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = exchange.path("headers").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> header = fields.next();
+            responseHeaders.put(header.getKey(), header.getValue().asText());
+        }
+        return new Response(exchange.path("status").asInt(), responseHeaders, exchange.path("body").asText());
+    }
+
+    private JsonNode next(String key) {
+        Deque<JsonNode> answers = exchanges.get(key);
+        if (answers == null) {
+            return null;
+        }
+        synchronized (answers) {
+            return answers.size() > 1 ? answers.poll() : answers.peek();
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while replaying a GitLab exchange", e);
+            }
+        }
+    }
+
+    private static String key(String method, String pathAndQuery) {
+        return method + " " + pathAndQuery;
+    }
+
+}
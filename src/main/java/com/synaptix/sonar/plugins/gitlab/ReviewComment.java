@@ -0,0 +1,89 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.Severity;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An inline comment waiting to be added on a line of the commit.
+ */
+public class ReviewComment {
+
+    private final String path;
+    private final int line;
+    private final String body;
+    private final List<Issue> issues;
+    private final int severityRank;
+
+    public ReviewComment(String path, int line, String body) {
+        this(path, line, body, Collections.emptyList());
+    }
+
+    /**
+     * @param issues the issues written in the body
+     */
+    public ReviewComment(String path, int line, String body, List<Issue> issues) {
+        this.path = path;
+        this.line = line;
+        this.body = body;
+        this.issues = Collections.unmodifiableList(issues);
+        int rank = -1;
+        for (Issue issue : issues) {
+            rank = Math.max(rank, Severity.ALL.indexOf(issue.severity()));
+        }
+        this.severityRank = rank;
+    }
+
+    /**
+     * @return path of the file relative to the Git root directory
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public List<Issue> getIssues() {
+        return issues;
+    }
+
+    /**
+     * @return position of the highest severity of the issues in {@link Severity#ALL}, -1 without issues
+     */
+    public int getSeverityRank() {
+        return severityRank;
+    }
+
+    @Override
+    public String toString() {
+        return path + ":" + line;
+    }
+
+}
@@ -0,0 +1,410 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import org.gitlab.api.GitlabAPIException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends inline comments to GitLab with a bounded number of concurrent requests.
+ * <p>
+ * A 429 answer pauses every sender for the delay asked by GitLab (plus some jitter). Creating a comment is not
+ * idempotent, so other errors are only retried, with a jittered exponential backoff, when GitLab cannot have created
+ * it: connection failures, and 502, 503 or 504 answers from the proxy in front of it. A comment that still cannot be
+ * sent is reported in the {@link Result} instead of aborting the others.
+ * <p>
+ * Queued comments are sent by decreasing severity of their issues, a comment submitted while a sender is idle is sent
+ * at once: to have every comment sent by severity, {@link #publish(Collection)} them together. Comments still queued
+ * at the deadline, or once the circuit breaker has opened after consecutive server or connection errors, are not sent
+ * and reported as unsent.
+ */
+public class ReviewCommentPublisher {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BACKOFF_MILLIS = 500;
+    public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 10;
+
+    private static final Logger logger = Loggers.get(ReviewCommentPublisher.class.getName());
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final int HTTP_BAD_GATEWAY = 502;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+    private static final Comparator<ReviewComment> BY_SEVERITY = Comparator.comparingInt(comment -> -comment.getSeverityRank());
+    // Higher severities first, then in submission order
+    private static final Comparator<Runnable> PRIORITY = Comparator.comparing(task -> (PrioritizedSend) task,
+            Comparator.<PrioritizedSend, ReviewComment>comparing(send -> send.comment, BY_SEVERITY).thenComparingLong(send -> send.sequence));
+
+    private final Sender sender;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long deadline;
+    private final int circuitBreakerThreshold;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger published = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger consecutiveErrors = new AtomicInteger();
+    private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+    private final List<ReviewComment> unsent = Collections.synchronizedList(new ArrayList<>());
+    private final Set<ReviewComment> sending = ConcurrentHashMap.newKeySet();
+    private volatile long pausedUntil;
+    private volatile boolean circuitOpen;
+
+    public ReviewCommentPublisher(Sender sender, int parallelism) {
+        this(sender, parallelism, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    public ReviewCommentPublisher(Sender sender, int parallelism, int maxAttempts, long backoffMillis) {
+        this(sender, parallelism, maxAttempts, backoffMillis, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param deadline time in milliseconds since the epoch after which no comment is sent
+     * @param circuitBreakerThreshold consecutive server or connection errors after which no comment is sent, 0 to
+     *                                never stop
+     */
+    public ReviewCommentPublisher(Sender sender, int parallelism, int maxAttempts, long backoffMillis, long deadline, int circuitBreakerThreshold) {
+        this.sender = sender;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.deadline = deadline;
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, parallelism);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(11, PRIORITY), runnable -> {
+            Thread thread = new Thread(runnable, "gitlab-comment-publisher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a comment, it is sent as soon as a sender is free. While some senders are idle, comments are sent in the
+     * order they are submitted.
+     *
+     * @param comment
+     */
+    public void submit(ReviewComment comment) {
+        executor.execute(new PrioritizedSend(comment, sequence.getAndIncrement()));
+    }
+
+    /**
+     * Wait for every queued comment to be sent or to fail, at most until the deadline. Comments still queued then
+     * are unsent, see {@link #finish(long)} for the ones being sent.
+     *
+     * @return
+     */
+    public Result finish() {
+        return finish(deadline);
+    }
+
+    /**
+     * Wait for every queued comment to be sent or to fail, at most until the deadline. Comments still queued then
+     * are unsent, the ones being sent are waited for until {@code inFlightDeadline}. Those still being sent after it
+     * are reported as unsent too, even if GitLab may accept them later, and their retries are interrupted.
+     *
+     * @param inFlightDeadline time in milliseconds since the epoch
+     * @return
+     */
+    public Result finish(long inFlightDeadline) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(millisUntil(deadline), TimeUnit.MILLISECONDS)) {
+                drainQueue();
+                if (!executor.awaitTermination(millisUntil(Math.max(deadline, inFlightDeadline)), TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drainQueue();
+            executor.shutdownNow();
+        }
+        // Read before the outcomes: a comment leaves the in-flight ones after its outcome is recorded, none is missed
+        List<ReviewComment> inFlight = new ArrayList<>(sending);
+        List<Failure> failuresCopy;
+        synchronized (failures) {
+            failuresCopy = new ArrayList<>(failures);
+        }
+        Set<ReviewComment> unsentCopy = new LinkedHashSet<>();
+        synchronized (unsent) {
+            unsentCopy.addAll(unsent);
+        }
+        unsentCopy.addAll(inFlight);
+        return new Result(published.get(), skipped.get(), retries.get(), failuresCopy, new ArrayList<>(unsentCopy), inFlight.size());
+    }
+
+    private static long millisUntil(long time) {
+        return time == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, time - System.currentTimeMillis());
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    private void drainQueue() {
+        List<Runnable> queued = new ArrayList<>();
+        executor.getQueue().drainTo(queued);
+        for (Runnable task : queued) {
+            unsent.add(((PrioritizedSend) task).comment);
+        }
+    }
+
+    /**
+     * Send comments by decreasing severity and wait for them.
+     *
+     * @param comments
+     * @return
+     */
+    public Result publish(Collection<ReviewComment> comments) {
+        submitAll(comments);
+        return finish();
+    }
+
+    /**
+     * Queue comments by decreasing severity, the first ones going straight to the idle senders.
+     *
+     * @param comments
+     */
+    public void submitAll(Collection<ReviewComment> comments) {
+        List<ReviewComment> bySeverity = new ArrayList<>(comments);
+        bySeverity.sort(BY_SEVERITY);
+        bySeverity.forEach(this::submit);
+    }
+
+    private void send(ReviewComment comment) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sleepUntil(Math.min(pausedUntil, deadline));
+                if (circuitOpen || System.currentTimeMillis() >= deadline) {
+                    unsent.add(comment);
+                    return;
+                }
+                if (sender.send(comment)) {
+                    published.incrementAndGet();
+                } else {
+                    skipped.incrementAndGet();
+                }
+                consecutiveErrors.set(0);
+                return;
+            } catch (GitLabRateLimitException e) {
+                if (attempt >= maxAttempts) {
+                    fail(comment, e);
+                    return;
+                }
+                retries.incrementAndGet();
+                long delay = e.getRetryAfterMillis() >= 0 ? e.getRetryAfterMillis() + jitter(backoffMillis) : backoff(attempt);
+                logger.debug("GitLab rate limit reached while commenting {}, pausing for {} ms", comment, delay);
+                pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+            } catch (IOException e) {
+                if (isServerError(e)) {
+                    recordServerError();
+                }
+                if (!isRetryable(e) || attempt >= maxAttempts) {
+                    fail(comment, e);
+                    return;
+                }
+                retries.incrementAndGet();
+                try {
+                    sleepUntil(Math.min(deadline, System.currentTimeMillis() + backoff(attempt)));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    fail(comment, e);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(comment, e);
+                return;
+            } catch (RuntimeException e) {
+                fail(comment, e);
+                return;
+            }
+        }
+    }
+
+    private void recordServerError() {
+        if (circuitBreakerThreshold > 0 && consecutiveErrors.incrementAndGet() >= circuitBreakerThreshold && !circuitOpen) {
+            circuitOpen = true;
+            logger.warn("{} consecutive GitLab errors, no more review comments are sent", circuitBreakerThreshold);
+        }
+    }
+
+    private void fail(ReviewComment comment, Exception cause) {
+        logger.debug("Unable to comment " + comment, cause);
+        failures.add(new Failure(comment, cause));
+    }
+
+    /**
+     * A read timeout or a 500 may come after GitLab created the comment, sending it again would duplicate it.
+     */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof GitlabAPIException) {
+            int status = ((GitlabAPIException) e).getResponseCode();
+            return status >= HTTP_BAD_GATEWAY && status <= HTTP_GATEWAY_TIMEOUT;
+        }
+        return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+    }
+
+    private static boolean isServerError(IOException e) {
+        return !(e instanceof GitlabAPIException) || ((GitlabAPIException) e).getResponseCode() >= HTTP_SERVER_ERROR;
+    }
+
+    private long backoff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt - 1, 20));
+        return jitter(ceiling);
+    }
+
+    private static long jitter(long bound) {
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long wait = time - System.currentTimeMillis();
+        if (wait > 0) {
+            TimeUnit.MILLISECONDS.sleep(wait);
+        }
+    }
+
+    private final class PrioritizedSend implements Runnable {
+
+        private final ReviewComment comment;
+        private final long sequence;
+
+        private PrioritizedSend(ReviewComment comment, long sequence) {
+            this.comment = comment;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            sending.add(comment);
+            try {
+                send(comment);
+            } finally {
+                sending.remove(comment);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Sender {
+
+        /**
+         * @return false if the comment did not need to be sent
+         */
+        boolean send(ReviewComment comment) throws IOException;
+
+    }
+
+    public static final class Failure {
+
+        private final ReviewComment comment;
+        private final Exception cause;
+
+        private Failure(ReviewComment comment, Exception cause) {
+            this.comment = comment;
+            this.cause = cause;
+        }
+
+        public ReviewComment getComment() {
+            return comment;
+        }
+
+        public Exception getCause() {
+            return cause;
+        }
+    }
+
+    public static final class Result {
+
+        private final int published;
+        private final int skipped;
+        private final int retries;
+        private final List<Failure> failures;
+        private final List<ReviewComment> unsent;
+        private final int inFlight;
+
+        private Result(int published, int skipped, int retries, List<Failure> failures, List<ReviewComment> unsent, int inFlight) {
+            this.published = published;
+            this.skipped = skipped;
+            this.retries = retries;
+            this.failures = Collections.unmodifiableList(failures);
+            this.unsent = Collections.unmodifiableList(unsent);
+            this.inFlight = inFlight;
+        }
+
+        public int getPublished() {
+            return published;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return number of sending attempts that were retried, rate limited ones included
+         */
+        public int getRetries() {
+            return retries;
+        }
+
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return comments not sent because of the deadline or of the circuit breaker, or still being sent when
+         * waiting for them stopped
+         */
+        public List<ReviewComment> getUnsent() {
+            return unsent;
+        }
+
+        /**
+         * @return number of the unsent comments that were still being sent when waiting for them stopped
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+    }
+
+}
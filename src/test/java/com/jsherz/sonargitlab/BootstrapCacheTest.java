@@ -0,0 +1,130 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.BootstrapCache;
+import com.synaptix.sonar.plugins.gitlab.BranchFingerprints;
+import com.synaptix.sonar.plugins.gitlab.ChangedLineIndex;
+import org.gitlab.api.models.GitlabProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class BootstrapCacheTest {
+
+    private static final String URL = "https://gitlab.example.com";
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testEntriesAreReadBack() throws IOException {
+        final BootstrapCache cache = new BootstrapCache(temp.getRoot().toPath().resolve("cache"), 1024 * 1024);
+        final GitlabProject project = new GitlabProject();
+        project.setId(42);
+        project.setWebUrl(URL + "/group/project");
+        final ChangedLineIndex changedLines = ChangedLineIndex.builder()
+                .addRange("src/Foo.java", 3, 5).addRange("src/Foo.java", 10, 10).addRange("src/Bar.java", 1, 1).build();
+
+        assertThat(cache.getProject(URL, "group/project", "abc")).isNull();
+        cache.putProject(URL, "group/project", "abc", project);
+        cache.putChangedLines(URL, 42, "abc", "api", changedLines);
+
+        assertThat(cache.getProject(URL, "group/project", "abc").getWebUrl()).isEqualTo(URL + "/group/project");
+        assertThat(cache.getProject(URL, "group/project", "def")).isNull();
+        final ChangedLineIndex cached = cache.getChangedLines(URL, 42, "abc", "api");
+        assertThat(cached.files()).containsExactly("src/Bar.java", "src/Foo.java");
+        assertThat(cached.hasLine("src/Foo.java", 4)).isTrue();
+        assertThat(cached.hasLine("src/Foo.java", 6)).isFalse();
+        assertThat(cached.hasLine("src/Foo.java", 10)).isTrue();
+        assertThat(cache.getChangedLines(URL, 42, "abc", "local")).isNull();
+    }
+
+    @Test
+    public void testBranchFingerprintsAreKeptPerBranch() {
+        final BootstrapCache cache = new BootstrapCache(temp.getRoot().toPath(), 1024 * 1024);
+        final BranchFingerprints fingerprints = new BranchFingerprints();
+        final long fingerprint = BranchFingerprints.fingerprint("squid:S1", "src/Foo.java", "Bad code", "  int a;");
+        fingerprints.commenting("src/Foo.java", 3, fingerprint);
+        fingerprints.published("src/Foo.java", 3, "abc");
+
+        cache.putFingerprints(URL, 42, "feature", fingerprints);
+
+        assertThat(cache.getFingerprints(URL, 42, "master")).isNull();
+        final BranchFingerprints cached = cache.getFingerprints(URL, 42, "feature");
+        assertThat(cached.seen(BranchFingerprints.fingerprint("squid:S1", "src/Foo.java", "Bad code", "int a;")))
+                .extracting(BranchFingerprints.Reported::getSha, BranchFingerprints.Reported::getLine).containsExactly("abc", 3);
+        assertThat(cached.seen(BranchFingerprints.fingerprint("squid:S1", "src/Foo.java", "Bad code", "int b;"))).isNull();
+        assertThat(cached.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        final Path dir = temp.getRoot().toPath();
+        final ChangedLineIndex.Builder builder = ChangedLineIndex.builder();
+        for (int i = 0; i < 100; i++) {
+            builder.addRange("src/File" + i + ".java", i, i);
+        }
+        final ChangedLineIndex changedLines = builder.build();
+        final BootstrapCache cache = new BootstrapCache(dir, 7000);
+
+        cache.putChangedLines(URL, 1, "first", "api", changedLines);
+        cache.putChangedLines(URL, 1, "second", "api", changedLines);
+        ageEntries(dir);
+        assertThat(cache.getChangedLines(URL, 1, "first", "api")).isNotNull();
+        cache.putChangedLines(URL, 1, "third", "api", changedLines);
+
+        assertThat(cache.getChangedLines(URL, 1, "second", "api")).isNull();
+        assertThat(cache.getChangedLines(URL, 1, "first", "api")).isNotNull();
+        assertThat(cache.getChangedLines(URL, 1, "third", "api")).isNotNull();
+    }
+
+    @Test
+    public void testCorruptedEntryIsIgnored() throws IOException {
+        final Path dir = temp.getRoot().toPath();
+        final BootstrapCache cache = new BootstrapCache(dir, 1024 * 1024);
+        cache.putChangedLines(URL, 1, "abc", "api", ChangedLineIndex.builder().addRange("src/Foo.java", 1, 1).build());
+        try (Stream<Path> entries = Files.list(dir)) {
+            final Path entry = entries.findFirst().get();
+            Files.write(entry, new byte[]{1, 2, 3});
+        }
+
+        assertThat(cache.getChangedLines(URL, 1, "abc", "api")).isNull();
+        assertThat(temp.getRoot().list()).isEmpty();
+    }
+
+    private static void ageEntries(Path dir) throws IOException {
+        try (Stream<Path> entries = Files.list(dir)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(Files.getLastModifiedTime(entry).toMillis() - 60_000));
+            }
+        }
+    }
+
+}
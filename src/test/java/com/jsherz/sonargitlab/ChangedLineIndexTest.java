@@ -0,0 +1,86 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.ChangedLineIndex;
+import com.synaptix.sonar.plugins.gitlab.PatchParser;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class ChangedLineIndexTest {
+
+    @Test
+    public void testAnswersLineLookupsFromRanges() {
+        final ChangedLineIndex.Builder builder = ChangedLineIndex.builder();
+        PatchParser.parse("@@ -1,2 +1,3 @@\n one\n+two\n three\n@@ -50,1 +51,2 @@\n x\n+y\n", builder.file("src/Foo.java"));
+        final ChangedLineIndex index = builder.build();
+
+        assertThat(index.hasFile("src/Foo.java")).isTrue();
+        assertThat(index.hasFile("src/Bar.java")).isFalse();
+        assertThat(index.hasFile(null)).isFalse();
+        for (int line : new int[]{1, 2, 3, 51, 52}) {
+            assertThat(index.hasLine("src/Foo.java", line)).as("line %s", line).isTrue();
+        }
+        for (int line : new int[]{-1, 0, 4, 50, 53}) {
+            assertThat(index.hasLine("src/Foo.java", line)).as("line %s", line).isFalse();
+        }
+        assertThat(index.hasLine("src/Bar.java", 1)).isFalse();
+    }
+
+    @Test
+    public void testFilesWithoutDisplayedLinesAreKnown() {
+        final ChangedLineIndex.Builder builder = ChangedLineIndex.builder();
+        builder.file("deleted.txt");
+        final ChangedLineIndex index = builder.build();
+
+        assertThat(index.hasFile("deleted.txt")).isTrue();
+        assertThat(index.hasLine("deleted.txt", 1)).isFalse();
+    }
+
+    @Test
+    public void testUnorderedAndOverlappingRangesAreMerged() {
+        final ChangedLineIndex index = ChangedLineIndex.builder()
+                .addRange("a", 20, 25)
+                .addRange("a", 1, 3)
+                .addRange("a", 4, 6)
+                .addRange("a", 22, 30)
+                .addRange("b", 7, 7)
+                .build();
+
+        assertThat(index.fileCount()).isEqualTo(2);
+        assertThat(index.rangeCount()).isEqualTo(3);
+        assertThat(index.hasLine("a", 6)).isTrue();
+        assertThat(index.hasLine("a", 7)).isFalse();
+        assertThat(index.hasLine("a", 30)).isTrue();
+        assertThat(index.hasLine(index.fileIndex("b"), 7)).isTrue();
+    }
+
+    @Test
+    public void testRetainedBytesGrowWithRangesNotLines() {
+        final ChangedLineIndex small = ChangedLineIndex.builder().addRange("a", 1, 10).build();
+        final ChangedLineIndex huge = ChangedLineIndex.builder().addRange("a", 1, 1_000_000).build();
+
+        assertThat(huge.retainedBytes()).isEqualTo(small.retainedBytes());
+        assertThat(huge.toString()).isEqualTo("1 files, 1 line ranges, ~" + huge.retainedBytes() + " bytes");
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.CommentWriter;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class CommentWriterTest {
+
+    @Test
+    public void testEntriesAreDroppedOnceTheLimitIsReached() {
+        final CommentWriter writer = new CommentWriter(100).append("Header\n");
+
+        int kept = 0;
+        for (int i = 0; i < 10; i++) {
+            final int entry = i;
+            if (writer.appendEntry(sb -> sb.append("Entry number ").append(entry).append('\n'))) {
+                kept++;
+            }
+        }
+        writer.append("... " + writer.getOmitted() + " more\n");
+
+        assertThat(kept).isEqualTo(4);
+        assertThat(writer.getOmitted()).isEqualTo(6);
+        assertThat(writer.toString()).isEqualTo("Header\nEntry number 0\nEntry number 1\nEntry number 2\nEntry number 3\n... 6 more\n");
+        assertThat(writer.size()).isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    public void testSizeIsCountedInUtf8Bytes() {
+        final String text = "£ யா 😀 a";
+        final CommentWriter writer = new CommentWriter(1000).append(text);
+
+        assertThat(writer.size()).isEqualTo(text.getBytes(StandardCharsets.UTF_8).length);
+        assertThat(writer.appendEntry(sb -> sb.append(new String(new char[1000]).replace('\0', 'x')))).isFalse();
+        assertThat(writer.toString()).isEqualTo(text);
+    }
+
+}
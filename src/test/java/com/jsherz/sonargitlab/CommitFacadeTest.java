@@ -0,0 +1,435 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.synaptix.sonar.plugins.gitlab.CommitFacade;
+import com.synaptix.sonar.plugins.gitlab.GitLabMetrics;
+import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.CommitComment;
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class CommitFacadeTest {
+
+    private static final String COMMENTS_PATH = "/api/v3/projects/1/repository/commits/abc/comments";
+    private static final String MERGE_REQUEST_PATH = "/api/v4/projects/1/merge_requests/7";
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testRetriedPipelineDoesNotRepostExistingComments() throws IOException {
+        final List<CommitComment> existing = new ArrayList<>();
+        existing.add(comment("src/Foo.java", "3", "Bad code"));
+        existing.add(comment(null, null, "SonarQube analysis reported 1 issue"));
+
+        try (FakeGitLabServer server = commitServer(existing)) {
+            final CommitFacade commitFacade = initFacade(server);
+            final InputFile inputFile = inputFile("src/Foo.java");
+
+            assertThat(commitFacade.createReviewComment(inputFile, 3, "Bad code\n")).isFalse();
+            commitFacade.addGlobalComment("SonarQube analysis reported 1 issue\n");
+            assertThat(posts(server)).isZero();
+
+            assertThat(commitFacade.createReviewComment(inputFile, 4, "Bad code\n")).isTrue();
+            assertThat(commitFacade.createReviewComment(inputFile, 3, "Other code\n")).isTrue();
+            commitFacade.addGlobalComment("SonarQube analysis reported 2 issues\n");
+            assertThat(posts(server)).isEqualTo(3);
+
+            assertThat(commitFacade.createReviewComment(inputFile, 4, "Bad code\n")).isFalse();
+            assertThat(posts(server)).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void testExistingCommentsAreReadOncePerPage() throws IOException {
+        final List<CommitComment> existing = new ArrayList<>();
+        for (int line = 1; line <= 150; line++) {
+            existing.add(comment("src/Foo.java", String.valueOf(line), "Issue " + line));
+        }
+
+        try (FakeGitLabServer server = commitServer(existing)) {
+            final CommitFacade commitFacade = initFacade(server);
+
+            assertThat(commitFacade.createReviewComment(inputFile("src/Foo.java"), 150, "Issue 150")).isFalse();
+            assertThat(server.requests()).extracting(Object::toString).filteredOn(r -> r.equals("GET " + COMMENTS_PATH)).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testPathIsRelativeToGitRoot() throws IOException {
+        try (FakeGitLabServer server = commitServer(Collections.emptyList())) {
+            final CommitFacade commitFacade = initFacade(server);
+            final InputFile inputFile = new DefaultInputFile("module", "src/Foo.java")
+                    .setModuleBaseDir(temp.getRoot().toPath().resolve("module"));
+
+            final String path = commitFacade.getPath(inputFile);
+
+            assertThat(path).isEqualTo("module/src/Foo.java");
+            assertThat(commitFacade.getGitLabUrl(path, 12)).isEqualTo(commitFacade.getGitLabUrl(inputFile, 12))
+                    .endsWith("/group/project-1/blob/abc/module/src/Foo.java#L12");
+            assertThat(commitFacade.getGitLabUrl((String) null, 12)).isNull();
+        }
+    }
+
+    @Test
+    public void testInitDoesNotWaitForGitLab() throws IOException {
+        final CountDownLatch gitLabAvailable = new CountDownLatch(1);
+        try (FakeGitLabServer server = commitServer(Collections.emptyList()).withCommitStatuses(1, "abc").withGate(gitLabAvailable)) {
+            final CommitFacade commitFacade = initFacade(server);
+            commitFacade.createOrUpdateSonarQubeStatusAsync("pending", "SonarQube analysis in progress");
+
+            gitLabAvailable.countDown();
+            assertThat(commitFacade.hasFile("src/Foo.java")).isFalse();
+            commitFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported no issues");
+
+            assertThat(server.requests()).filteredOn(r -> r.path.endsWith("/statuses/abc"))
+                    .extracting(CommitFacadeTest::state).containsExactly("pending", "success");
+        }
+    }
+
+    @Test
+    public void testStatusQueuedWhileGitLabDoesNotAnswerFollowsThePendingOne() throws IOException {
+        final CountDownLatch gitLabAvailable = new CountDownLatch(1);
+        try (FakeGitLabServer server = commitServer(Collections.emptyList()).withCommitStatuses(1, "abc").withGate(gitLabAvailable)) {
+            final CommitFacade commitFacade = initFacade(server);
+            commitFacade.createOrUpdateSonarQubeStatusAsync("pending", "SonarQube analysis in progress");
+            assertThat(commitFacade.awaitBootstrap(System.currentTimeMillis() + 100)).isFalse();
+            final CompletableFuture<Void> incomplete = commitFacade.createOrUpdateSonarQubeStatusAsync("failed", "SonarQube analysis incomplete");
+
+            gitLabAvailable.countDown();
+            incomplete.join();
+
+            assertThat(server.requests()).filteredOn(r -> r.path.endsWith("/statuses/abc"))
+                    .extracting(CommitFacadeTest::state).containsExactly("pending", "failed");
+        }
+    }
+
+    @Test
+    public void testStatusUpdateDoesNotWaitPastTheDeadline() throws IOException {
+        final CountDownLatch statusAnswered = new CountDownLatch(1);
+        try (FakeGitLabServer server = commitServer(Collections.emptyList())) {
+            server.on("POST", "/api/v3/projects/1/statuses/abc", request -> {
+                try {
+                    statusAnswered.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return FakeGitLabServer.Response.status(201).body("{}");
+            });
+            final CommitFacade commitFacade = initFacade(server);
+            assertThat(commitFacade.awaitBootstrap(System.currentTimeMillis() + 10_000)).isTrue();
+
+            final long start = System.currentTimeMillis();
+            try {
+                assertThat(commitFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported no issues", start + 200)).isFalse();
+                assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+            } finally {
+                statusAnswered.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedStatusIsNotSentAgain() throws IOException {
+        try (FakeGitLabServer server = commitServer(Collections.emptyList()).withCommitStatuses(1, "abc")) {
+            server.on("GET", "/api/v3/projects/1/repository/commits/abc/statuses", request -> {
+                assertThat(request.query).containsEntry("name", "default");
+                return FakeGitLabServer.Response.status(200)
+                        .body("[{\"id\":\"3\",\"status\":\"pending\",\"name\":\"default\",\"description\":\"SonarQube analysis in progress\"}," +
+                                "{\"id\":\"2\",\"status\":\"success\",\"name\":\"default\",\"description\":\"Old\"}]");
+            });
+            final CommitFacade commitFacade = initFacade(server);
+
+            commitFacade.createOrUpdateSonarQubeStatusAsync("pending", "SonarQube analysis in progress");
+            commitFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported no issues");
+            commitFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported no issues");
+
+            assertThat(server.requests()).extracting(Object::toString).filteredOn(r -> r.contains("/statuses"))
+                    .containsExactly("GET /api/v3/projects/1/repository/commits/abc/statuses", "POST /api/v3/projects/1/statuses/abc");
+            assertThat(server.requests()).filteredOn(r -> "POST".equals(r.method) && r.path.endsWith("/statuses/abc"))
+                    .extracting(CommitFacadeTest::state).containsExactly("success");
+        }
+    }
+
+    @Test
+    public void testFinalStatusesOfTheAnalysesOfACommitAreCoalesced() throws IOException {
+        temp.newFolder(".git");
+        final File cacheDir = temp.newFolder("cache");
+        try (FakeGitLabServer server = commitServer(Collections.emptyList()).withCommitStatuses(1, "abc")) {
+            final Settings backend = settings(server, "abc", "api", cacheDir, null);
+            backend.setProperty("sonar.projectKey", "backend");
+            final CommitFacade backendFacade = initFacade(backend, temp.getRoot());
+            backendFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported 1 issue, no critical nor blocker");
+            // A later module of the same analysis cannot hide the failure of an earlier one
+            backendFacade.createOrUpdateSonarQubeStatus("failed", "SonarQube reported 1 issue, with 1 blocker");
+            backendFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported no issues");
+
+            final Settings frontend = settings(server, "abc", "api", cacheDir, null);
+            frontend.setProperty("sonar.projectKey", "frontend");
+            initFacade(frontend, temp.getRoot()).createOrUpdateSonarQubeStatus("success", "SonarQube reported no issues");
+
+            final List<FakeGitLabServer.Request> posted = server.requests().stream()
+                    .filter(r -> "POST".equals(r.method) && r.path.endsWith("/statuses/abc")).collect(Collectors.toList());
+            assertThat(posted).extracting(CommitFacadeTest::state).containsExactly("success", "failed", "failed");
+            assertThat(GitlabAPI.MAPPER.readTree(posted.get(2).body).get("description").asText())
+                    .isEqualTo("backend: SonarQube reported 1 issue, with 1 blocker");
+        }
+    }
+
+    @Test
+    public void testBootstrapFailureSurfacesWhenGitLabIsNeeded() throws IOException {
+        try (FakeGitLabServer server = new FakeGitLabServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+
+            assertThatThrownBy(() -> commitFacade.hasFile("src/Foo.java"))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("GitLab bootstrap failed")
+                    .hasMessageContaining("Unable found project for 1");
+        }
+    }
+
+    @Test
+    public void testLocalDiffDoesNotDownloadTheDiff() throws IOException {
+        final GitRepository repository = GitRepository.init(temp.newFolder("repo")).write("src/Foo.java", GitRepository.lines(1, 20));
+        repository.commit("Initial");
+        final String sha = repository.write("src/Foo.java", GitRepository.lines(1, 20) + "added\n").commit("Add a line");
+
+        try (FakeGitLabServer server = new FakeGitLabServer().withProject(1).withCommitComments(1, sha, Collections.emptyList())) {
+            final CommitFacade commitFacade = initFacade(server, repository.dir(), sha, "local");
+
+            assertThat(commitFacade.hasFileLine("src/Foo.java", 21)).isTrue();
+            assertThat(commitFacade.hasFileLine("src/Foo.java", 17)).isFalse();
+            assertThat(server.requests()).filteredOn(r -> r.path.endsWith("/diff")).isEmpty();
+        }
+    }
+
+    @Test
+    public void testLocalDiffFallsBackToTheApiInShallowClone() throws IOException {
+        final GitRepository origin = GitRepository.init(temp.newFolder("origin")).write("src/Foo.java", GitRepository.lines(1, 20));
+        origin.commit("Initial");
+        final String sha = origin.write("src/Foo.java", GitRepository.lines(1, 20) + "added\n").commit("Add a line");
+        final GitRepository clone = GitRepository.shallowClone(origin, temp.getRoot().toPath().resolve("clone").toFile());
+
+        try (FakeGitLabServer server = new FakeGitLabServer().withProject(1).withCommitComments(1, sha, Collections.emptyList())
+                .withCommitDiffs(1, sha, Collections.emptyList())) {
+            final CommitFacade commitFacade = initFacade(server, clone.dir(), sha, "local");
+
+            assertThat(commitFacade.hasFile("src/Foo.java")).isFalse();
+            assertThat(server.requests()).filteredOn(r -> r.path.endsWith("/diff")).hasSize(1);
+        }
+    }
+
+    @Test
+    public void testCachedCommitIsNotDownloadedAgain() throws IOException {
+        temp.newFolder(".git");
+        final File cacheDir = temp.newFolder("cache");
+        final GitlabCommitDiff diff = new GitlabCommitDiff();
+        diff.setNewPath("src/Foo.java");
+        diff.setDiff("@@ -1,2 +1,3 @@\n a\n+b\n c\n");
+
+        try (FakeGitLabServer server = new FakeGitLabServer().withProject(1).withCommitComments(1, "abc", Collections.emptyList())
+                .withCommitDiffs(1, "abc", Collections.singletonList(diff))) {
+            assertThat(initFacade(server, temp.getRoot(), "abc", "api", cacheDir).hasFileLine("src/Foo.java", 2)).isTrue();
+            server.resetRequests();
+
+            final CommitFacade commitFacade = initFacade(server, temp.getRoot(), "abc", "api", cacheDir);
+
+            assertThat(commitFacade.hasFileLine("src/Foo.java", 2)).isTrue();
+            assertThat(commitFacade.hasFileLine("src/Foo.java", 4)).isFalse();
+            assertThat(commitFacade.getGitLabUrl("src/Foo.java", 2)).endsWith("/group/project-1/blob/abc/src/Foo.java#L2");
+            assertThat(server.requests()).extracting(Object::toString).containsExactly("GET " + COMMENTS_PATH);
+        }
+    }
+
+    @Test
+    public void testMergeRequestModeReviewsTheWholeMergeRequestDiff() throws IOException {
+        temp.newFolder(".git");
+        final String changes = "{\"diff_refs\":{\"base_sha\":\"base\",\"start_sha\":\"start\",\"head_sha\":\"abc\"},\"changes\":["
+                + "{\"old_path\":\"src/Foo.java\",\"new_path\":\"src/Foo.java\",\"diff\":\"@@ -1,2 +1,3 @@\\n a\\n+b\\n c\\n\"},"
+                + "{\"old_path\":\"src/Old.java\",\"new_path\":\"src/Bar.java\",\"diff\":\"@@ -10,2 +10,3 @@\\n a\\n+b\\n c\\n\"}]}";
+        final String discussions = "[{\"notes\":[{\"body\":\"Bad code\",\"position\":{\"new_path\":\"src/Foo.java\",\"new_line\":2}}]}]";
+
+        try (FakeGitLabServer server = new FakeGitLabServer().withProject(1)) {
+            server.on("GET", MERGE_REQUEST_PATH + "/changes", request -> FakeGitLabServer.Response.status(200).body(changes))
+                    .on("GET", MERGE_REQUEST_PATH + "/discussions", request -> FakeGitLabServer.Response.status(200)
+                            .body(request.intQuery("page", 1) == 1 ? discussions : "[]"))
+                    .on("POST", MERGE_REQUEST_PATH + "/(discussions|notes)", request -> FakeGitLabServer.Response.status(201).body("{}"));
+            final CommitFacade commitFacade = initFacade(server, temp.getRoot(), "abc", "api", null, "7");
+
+            assertThat(commitFacade.hasFileLine("src/Foo.java", 2)).isTrue();
+            assertThat(commitFacade.hasFileLine("src/Bar.java", 11)).isTrue();
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 2, "Bad code\n")).isFalse();
+            assertThat(commitFacade.createReviewComment("src/Bar.java", 11, "Bad code\n")).isTrue();
+            commitFacade.addGlobalComment("SonarQube analysis reported 2 issues\n");
+
+            assertThat(server.requests()).filteredOn(r -> r.path.contains("/repository/commits/")).isEmpty();
+            final List<FakeGitLabServer.Request> posts = server.requests().stream().filter(r -> "POST".equals(r.method)).collect(Collectors.toList());
+            assertThat(posts).extracting(Object::toString)
+                    .containsExactly("POST " + MERGE_REQUEST_PATH + "/discussions", "POST " + MERGE_REQUEST_PATH + "/notes");
+            final JsonNode position = GitlabAPI.MAPPER.readTree(posts.get(0).body).get("position");
+            assertThat(position.get("base_sha").asText()).isEqualTo("base");
+            assertThat(position.get("start_sha").asText()).isEqualTo("start");
+            assertThat(position.get("head_sha").asText()).isEqualTo("abc");
+            assertThat(position.get("old_path").asText()).isEqualTo("src/Old.java");
+            assertThat(position.get("new_line").asInt()).isEqualTo(11);
+        }
+    }
+
+    @Test
+    public void testMergeRequestDiscussionOnAnUnmodifiedLineHasBothLines() throws IOException {
+        temp.newFolder(".git");
+        final String changes = "{\"diff_refs\":{\"base_sha\":\"base\",\"start_sha\":\"start\",\"head_sha\":\"abc\"},\"changes\":["
+                + "{\"old_path\":\"src/Foo.java\",\"new_path\":\"src/Foo.java\",\"diff\":\"@@ -10,4 +10,5 @@\\n a\\n-b\\n+c\\n+d\\n e\\n f\\n\"}]}";
+
+        try (FakeGitLabServer server = new FakeGitLabServer().withProject(1)) {
+            server.on("GET", MERGE_REQUEST_PATH + "/changes", request -> FakeGitLabServer.Response.status(200).body(changes))
+                    .on("GET", MERGE_REQUEST_PATH + "/discussions", request -> FakeGitLabServer.Response.status(200).body("[]"))
+                    .on("POST", MERGE_REQUEST_PATH + "/discussions", request -> FakeGitLabServer.Response.status(201).body("{}"));
+            final CommitFacade commitFacade = initFacade(server, temp.getRoot(), "abc", "api", null, "7");
+
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 10, "Before\n")).isTrue();
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 12, "Added\n")).isTrue();
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 14, "After\n")).isTrue();
+
+            final List<JsonNode> positions = new ArrayList<>();
+            for (FakeGitLabServer.Request post : server.requests()) {
+                if ("POST".equals(post.method)) {
+                    positions.add(GitlabAPI.MAPPER.readTree(post.body).get("position"));
+                }
+            }
+            assertThat(positions).hasSize(3);
+            assertThat(positions.get(0).get("new_line").asInt()).isEqualTo(10);
+            assertThat(positions.get(0).get("old_line").asInt()).isEqualTo(10);
+            assertThat(positions.get(1).get("new_line").asInt()).isEqualTo(12);
+            assertThat(positions.get(1).has("old_line")).isFalse();
+            assertThat(positions.get(2).get("new_line").asInt()).isEqualTo(14);
+            assertThat(positions.get(2).get("old_line").asInt()).isEqualTo(13);
+        }
+    }
+
+    @Test
+    public void testOutdatedMergeRequestFallsBackToTheCommit() throws IOException {
+        temp.newFolder(".git");
+        try (FakeGitLabServer server = commitServer(Collections.emptyList())) {
+            server.on("GET", MERGE_REQUEST_PATH + "/changes", request -> FakeGitLabServer.Response.status(200)
+                    .body("{\"diff_refs\":{\"head_sha\":\"def\"},\"changes\":[]}"));
+            final CommitFacade commitFacade = initFacade(server, temp.getRoot(), "abc", "api", null, "7");
+
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 2, "Bad code\n")).isTrue();
+            assertThat(server.requests()).extracting(Object::toString).contains("GET " + COMMENTS_PATH, "POST " + COMMENTS_PATH)
+                    .doesNotContain("GET " + MERGE_REQUEST_PATH + "/discussions");
+        }
+    }
+
+    private static String state(FakeGitLabServer.Request request) {
+        try {
+            return GitlabAPI.MAPPER.readTree(request.body).get("state").asText();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long posts(FakeGitLabServer server) {
+        return server.requests().stream().filter(r -> "POST".equals(r.method)).count();
+    }
+
+    private InputFile inputFile(String relativePath) {
+        return new DefaultInputFile("module", relativePath).setModuleBaseDir(temp.getRoot().toPath());
+    }
+
+    private static CommitComment comment(String path, String line, String note) {
+        final CommitComment comment = new CommitComment();
+        comment.setPath(path);
+        comment.setLine(line);
+        comment.setNote(note);
+        return comment;
+    }
+
+    private static FakeGitLabServer commitServer(List<CommitComment> existing) throws IOException {
+        final FakeGitLabServer server = new FakeGitLabServer().withProject(1)
+                .withCommitDiffs(1, "abc", Collections.emptyList())
+                .withCommitComments(1, "abc", existing);
+        server.on("POST", COMMENTS_PATH, request -> FakeGitLabServer.Response.status(201).body(request.body));
+        return server;
+    }
+
+    private CommitFacade initFacade(FakeGitLabServer server) throws IOException {
+        temp.newFolder(".git");
+        return initFacade(server, temp.getRoot(), "abc", "api");
+    }
+
+    private static CommitFacade initFacade(FakeGitLabServer server, File baseDir, String sha, String diffSource) {
+        return initFacade(server, baseDir, sha, diffSource, null);
+    }
+
+    private static CommitFacade initFacade(FakeGitLabServer server, File baseDir, String sha, String diffSource, File cacheDir) {
+        return initFacade(server, baseDir, sha, diffSource, cacheDir, null);
+    }
+
+    private static CommitFacade initFacade(FakeGitLabServer server, File baseDir, String sha, String diffSource, File cacheDir, String mergeRequestIid) {
+        return initFacade(settings(server, sha, diffSource, cacheDir, mergeRequestIid), baseDir);
+    }
+
+    private static CommitFacade initFacade(Settings settings, File baseDir) {
+        final CommitFacade commitFacade = new CommitFacade(new GitLabPluginConfiguration(settings), new GitLabMetrics());
+        commitFacade.init(baseDir);
+        return commitFacade;
+    }
+
+    private static Settings settings(FakeGitLabServer server, String sha, String diffSource, File cacheDir, String mergeRequestIid) {
+        final Settings settings = new Settings();
+        if (cacheDir != null) {
+            settings.setProperty("sonar.gitlab.cache_dir", cacheDir.getPath());
+        }
+        if (mergeRequestIid != null) {
+            settings.setProperty("sonar.gitlab.merge_request_iid", mergeRequestIid);
+        }
+        settings.setProperty("sonar.gitlab.url", server.url());
+        settings.setProperty("sonar.gitlab.user_token", "token");
+        settings.setProperty("sonar.gitlab.project_id", "1");
+        settings.setProperty("sonar.gitlab.commit_sha", sha);
+        settings.setProperty("sonar.gitlab.diff_source", diffSource);
+        return settings;
+    }
+
+}
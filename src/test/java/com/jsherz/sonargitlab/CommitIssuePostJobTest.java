@@ -0,0 +1,448 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.BranchFingerprints;
+import com.synaptix.sonar.plugins.gitlab.CommitFacade;
+import com.synaptix.sonar.plugins.gitlab.CommitIssuePostJob;
+import com.synaptix.sonar.plugins.gitlab.GitLabMetrics;
+import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
+import com.synaptix.sonar.plugins.gitlab.InputFileCache;
+import com.synaptix.sonar.plugins.gitlab.MarkDownUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.postjob.PostJobContext;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.ProjectIssues;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class CommitIssuePostJobTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private final Settings settings = new Settings();
+    private final CommitFacade commitFacade = mock(CommitFacade.class);
+    private final InputFileCache inputFileCache = mock(InputFileCache.class);
+    private final List<String> postedComments = Collections.synchronizedList(new ArrayList<>());
+
+    public CommitIssuePostJobTest() throws IOException {
+        settings.setProperty("sonar.host.url", "http://sonar");
+        settings.setProperty("sonar.gitlab.commit_sha", "abc");
+        settings.setProperty("sonar.gitlab.publish_parallelism", 1);
+        when(inputFileCache.snapshot()).thenReturn(inputFileCache);
+        when(commitFacade.createReviewComment(anyString(), anyInt(), anyString())).then(invocation -> {
+            postedComments.add(invocation.getArgument(0) + ":" + invocation.getArgument(1) + "\n" + invocation.getArgument(2));
+            return true;
+        });
+    }
+
+    @Test
+    public void testIssuesOnTheSameLineAreGroupedAndPostedInFileOrder() {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        when(commitFacade.hasFileLine("C.java", 8)).thenReturn(false);
+
+        execute(issue("B.java", 5, "On B", true),
+                issue("A.java", 3, "First on A3", true),
+                issue("C.java", 8, "Not in diff", true),
+                issue("A.java", 3, "Second on A3", true),
+                issue("A.java", 1, "Old one", false),
+                issue("A.java", 1, "On A1", true));
+
+        assertThat(postedComments).hasSize(3);
+        assertThat(postedComments.get(0)).startsWith("A.java:1\n").contains("On A1").doesNotContain("Old one");
+        assertThat(postedComments.get(1)).startsWith("A.java:3\n").containsPattern("(?s)First on A3.*Second on A3");
+        assertThat(postedComments.get(2)).startsWith("B.java:5\n").contains("On B");
+        verify(commitFacade).addGlobalComment(startsWith("SonarQube analysis reported 5 issues"));
+        verify(commitFacade).createOrUpdateSonarQubeStatus("success", "SonarQube reported 5 issues, no critical nor blocker");
+    }
+
+    @Test
+    public void testCommentsArePostedWhileLaterFilesAreClassified() throws IOException {
+        final AtomicLong lastClassification = new AtomicLong();
+        when(commitFacade.hasFileLine(anyString(), anyInt())).then(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(20);
+            lastClassification.set(System.nanoTime());
+            return true;
+        });
+        final AtomicLong firstPost = new AtomicLong();
+        when(commitFacade.createReviewComment(anyString(), anyInt(), anyString())).then(invocation -> {
+            firstPost.compareAndSet(0, System.nanoTime());
+            return true;
+        });
+
+        final List<Issue> issues = new ArrayList<>();
+        for (int file = 0; file < 20; file++) {
+            issues.add(issue("File" + file + ".java", 1, "Issue", true));
+        }
+        execute(issues.toArray(new Issue[0]));
+
+        assertThat(firstPost.get()).isNotZero().isLessThan(lastClassification.get());
+    }
+
+    @Test
+    public void testInlineCommentIsCutAtTheMaxCommentSize() {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        settings.setProperty("sonar.gitlab.max_comment_size", 500);
+        final List<Issue> issues = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            issues.add(issue("A.java", 1, "Issue " + i, true));
+        }
+
+        execute(issues.toArray(new Issue[0]));
+
+        assertThat(postedComments).hasSize(1);
+        assertThat(postedComments.get(0).substring("A.java:1\n".length()).length()).isLessThanOrEqualTo(500);
+        assertThat(postedComments.get(0)).contains("Issue 0 ").doesNotContain("Issue 19").containsPattern("\\.\\.\\. \\d+ more\n$");
+    }
+
+    @Test
+    public void testParallelClassificationGivesTheSameResultAsSequential() throws IOException {
+        settings.setProperty("sonar.gitlab.max_global_issues", 1000);
+        final List<Issue> issues = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            issues.add(issue("File" + (i * 7 % 31) + ".java", i % 13, "Issue " + i, i % 11 != 0));
+        }
+
+        final List<String> sequential = classify(issues, 1);
+        final List<String> parallel = classify(issues, 4);
+
+        assertThat(sequential.get(sequential.size() - 2)).contains("Issue 3 ").doesNotContain("... ");
+        assertThat(parallel).isEqualTo(sequential);
+    }
+
+    @Test
+    public void testParallelClassificationMakesTheSameCommentsUnderTheCaps() throws IOException {
+        settings.setProperty("sonar.gitlab.max_global_issues", 1000);
+        settings.setProperty("sonar.gitlab.max_inline_comments_per_file", 2);
+        settings.setProperty("sonar.gitlab.max_inline_comments", 10);
+        final List<Issue> issues = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            issues.add(issue("File" + (i * 7 % 31) + ".java", i % 13, "Issue " + i, true));
+        }
+
+        final List<String> sequential = classify(issues, 1);
+
+        assertThat(sequential).hasSize(12);
+        for (int i = 0; i < 5; i++) {
+            assertThat(classify(issues, 4)).isEqualTo(sequential);
+        }
+    }
+
+    @Test
+    public void testIssuesCommentedOnEarlierCommitsOfTheBranchAreSkipped() throws IOException {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        settings.setProperty("sonar.gitlab.previously_reported", "skip");
+        write("A.java", "class A {\n  int a;\n  int b;\n}\n");
+        when(commitFacade.loadBranchFingerprints()).thenReturn(new BranchFingerprints());
+
+        execute(issue("A.java", 2, "Field a", true), issue("A.java", 3, "Field b", true));
+
+        assertThat(postedComments).hasSize(2);
+        assertThat(saved().size()).isEqualTo(2);
+        final BranchFingerprints stored = reread(saved());
+
+        postedComments.clear();
+        reset(commitFacade);
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        when(commitFacade.createReviewComment(anyString(), anyInt(), anyString())).then(invocation -> {
+            postedComments.add(invocation.getArgument(0) + ":" + invocation.getArgument(1) + "\n" + invocation.getArgument(2));
+            return true;
+        });
+        when(commitFacade.loadBranchFingerprints()).thenReturn(stored);
+        write("A.java", "class A {\n  int c;\n  int a;\n  int b;\n}\n");
+
+        execute(issue("A.java", 2, "Field c", true), issue("A.java", 3, "Field a", true), issue("A.java", 4, "Field b", true));
+
+        assertThat(postedComments).containsExactly("A.java:2\n" + new MarkDownUtils(settings).inlineIssue(Severity.MAJOR, "Field c", "squid:S1") + "\n");
+        assertThat(saved().size()).isEqualTo(3);
+        verify(commitFacade).addGlobalComment(startsWith("SonarQube analysis reported 3 issues"));
+    }
+
+    @Test
+    public void testOnlyIssuesOnTheDiffAreFingerprinted() throws IOException {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(false);
+        when(commitFacade.hasFileLine("A.java", 2)).thenReturn(true);
+        settings.setProperty("sonar.gitlab.previously_reported", "skip");
+        write("A.java", "class A {\n  int a;\n}\n");
+        when(commitFacade.loadBranchFingerprints()).thenReturn(new BranchFingerprints());
+        final Issue outsideOfGit = issue("Outside.java", 1, "Outside of the Git root", true);
+        when(inputFileCache.pathByKey("project:Outside.java")).thenReturn(null);
+        final Issue notInDiff = issue("Legacy.java", 1, "Not in the diff", true);
+        final InputFile legacy = mock(InputFile.class);
+        when(legacy.path()).thenThrow(new AssertionError("Files without issues on the diff must not be read"));
+        when(inputFileCache.byKey("project:Legacy.java")).thenReturn(legacy);
+
+        execute(outsideOfGit, notInDiff, issue("A.java", 2, "Field a", true));
+
+        assertThat(postedComments).hasSize(1);
+        assertThat(saved().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testIssuesCommentedOnEarlierCommitsAreLinkedFromTheGlobalComment() throws IOException {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        when(commitFacade.getCommitUrl("abc")).thenReturn("http://gitlab/group/project/commit/abc");
+        settings.setProperty("sonar.gitlab.previously_reported", "link");
+        settings.setProperty("sonar.gitlab.max_global_issues", 10);
+        write("A.java", "class A {\n  int a;\n}\n");
+        when(commitFacade.loadBranchFingerprints()).thenReturn(new BranchFingerprints());
+        execute(issue("A.java", 2, "Field a", true));
+        final BranchFingerprints stored = reread(saved());
+        reset(commitFacade);
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        when(commitFacade.getCommitUrl("abc")).thenReturn("http://gitlab/group/project/commit/abc");
+        when(commitFacade.loadBranchFingerprints()).thenReturn(stored);
+        postedComments.clear();
+
+        execute(issue("A.java", 2, "Field a", true));
+
+        assertThat(postedComments).isEmpty();
+        final ArgumentCaptor<String> globalComment = ArgumentCaptor.forClass(String.class);
+        verify(commitFacade).addGlobalComment(globalComment.capture());
+        assertThat(globalComment.getValue()).contains("already reported on an earlier commit of this branch", "[Field a](http://gitlab/group/project/commit/abc)")
+                .doesNotContain("not displayed in this commit");
+    }
+
+    @Test
+    public void testCommentsLeftAtThePublishTimeoutAreListedInTheGlobalComment() throws IOException {
+        final CountDownLatch gitLabAnswers = new CountDownLatch(1);
+        when(commitFacade.awaitBootstrap(anyLong())).thenReturn(true);
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        when(commitFacade.createReviewComment(anyString(), anyInt(), anyString())).then(invocation -> {
+            postedComments.add(invocation.getArgument(0) + ":" + invocation.getArgument(1));
+            // Only the first comment is answered before the timeout
+            if (postedComments.size() > 1) {
+                gitLabAnswers.await();
+            }
+            return true;
+        });
+        postedComments.clear();
+        when(commitFacade.createOrUpdateSonarQubeStatus(anyString(), anyString(), anyLong())).thenReturn(true);
+        settings.setProperty("sonar.gitlab.publish_timeout", 2);
+        settings.setProperty("sonar.gitlab.max_global_issues", 10);
+        final List<Issue> issues = new ArrayList<>();
+        for (int line = 1; line <= 6; line++) {
+            issues.add(issue("A.java", line, "Issue " + line, true));
+        }
+        when(issues.get(4).severity()).thenReturn(Severity.BLOCKER);
+
+        try {
+            execute(issues.toArray(new Issue[0]));
+        } finally {
+            gitLabAnswers.countDown();
+        }
+
+        assertThat(postedComments).containsExactly("A.java:5", "A.java:1");
+        final InOrder inOrder = inOrder(commitFacade);
+        inOrder.verify(commitFacade).createOrUpdateSonarQubeStatus(eq("failed"), eq("SonarQube reported 6 issues, with 1 blocker"), anyLong());
+        final ArgumentCaptor<String> globalComment = ArgumentCaptor.forClass(String.class);
+        inOrder.verify(commitFacade).addGlobalComment(globalComment.capture());
+        assertThat(globalComment.getValue()).contains("did not accept comments in time for 5 of them", "Issue 1", "Issue 6").doesNotContain("Issue 5");
+    }
+
+    @Test
+    public void testNothingIsPublishedWhenGitLabIsNotBootstrappedInTime() {
+        settings.setProperty("sonar.gitlab.publish_timeout", 1);
+        when(commitFacade.awaitBootstrap(anyLong())).thenReturn(false);
+
+        execute(issue("A.java", 1, "Issue", true));
+
+        verify(commitFacade, never()).hasFileLine(anyString(), anyInt());
+        verify(commitFacade, never()).addGlobalComment(anyString());
+        verify(commitFacade).createOrUpdateSonarQubeStatusAsync(eq("failed"), contains("incomplete"));
+        verify(commitFacade, never()).createOrUpdateSonarQubeStatus(anyString(), anyString(), anyLong());
+        verify(commitFacade, never()).createOrUpdateSonarQubeStatus(anyString(), anyString());
+    }
+
+    @Test
+    public void testIssuesOnNearbyLinesShareAComment() {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        settings.setProperty("sonar.gitlab.comment_line_window", 3);
+
+        execute(issue("A.java", 1, "On A1", true),
+                issue("A.java", 2, "On A2", true),
+                issue("A.java", 4, "On A4", true),
+                issue("A.java", 10, "On A10", true),
+                issue("B.java", 11, "On B11", true));
+
+        assertThat(postedComments).hasSize(3);
+        assertThat(postedComments.get(0)).startsWith("A.java:1\n").containsPattern("(?s)On A1.*Line 2: .*On A2.*Line 4: .*On A4")
+                .doesNotContain("Line 1: ");
+        assertThat(postedComments.get(1)).startsWith("A.java:10\n").contains("On A10");
+        assertThat(postedComments.get(2)).startsWith("B.java:11\n").contains("On B11");
+    }
+
+    @Test
+    public void testIssuesExactlyTheLineWindowAfterACommentShareIt() {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        settings.setProperty("sonar.gitlab.comment_line_window", 3);
+
+        execute(issue("A.java", 1, "On A1", true),
+                issue("A.java", 4, "On A4", true),
+                issue("A.java", 5, "On A5", true));
+
+        assertThat(postedComments).hasSize(2);
+        assertThat(postedComments.get(0)).startsWith("A.java:1\n").contains("Line 4: ").doesNotContain("On A5");
+        assertThat(postedComments.get(1)).startsWith("A.java:5\n").contains("On A5");
+    }
+
+    @Test
+    public void testNoLineWindowGivesOneCommentPerLine() {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+
+        execute(issue("A.java", 1, "On A1", true),
+                issue("A.java", 1, "Again on A1", true),
+                issue("A.java", 2, "On A2", true));
+
+        assertThat(postedComments).hasSize(2);
+        assertThat(postedComments.get(0)).startsWith("A.java:1\n").contains("On A1", "Again on A1");
+        assertThat(postedComments.get(1)).startsWith("A.java:2\n").contains("On A2");
+    }
+
+    @Test
+    public void testCommentsOverTheCapsAreListedInTheGlobalComment() {
+        when(commitFacade.hasFileLine(anyString(), anyInt())).thenReturn(true);
+        settings.setProperty("sonar.gitlab.max_inline_comments_per_file", 2);
+        settings.setProperty("sonar.gitlab.max_inline_comments", 3);
+        settings.setProperty("sonar.gitlab.max_global_issues", 10);
+
+        execute(issue("A.java", 1, "On A1", true),
+                issue("A.java", 2, "On A2", true),
+                issue("A.java", 2, "Again on A2", true),
+                issue("A.java", 3, "On A3", true),
+                issue("B.java", 1, "On B1", true),
+                issue("B.java", 2, "On B2", true));
+
+        assertThat(postedComments).hasSize(3);
+        assertThat(postedComments.get(1)).startsWith("A.java:2\n").contains("Again on A2");
+        assertThat(postedComments.get(2)).startsWith("B.java:1\n");
+        final ArgumentCaptor<String> globalComment = ArgumentCaptor.forClass(String.class);
+        verify(commitFacade).addGlobalComment(globalComment.capture());
+        assertThat(globalComment.getValue()).contains("maximum number of inline comments per file or per commit is reached:\n", "On A3", "On B2")
+                .doesNotContain("not displayed in this commit").doesNotContain("On A1").doesNotContain("On B1");
+    }
+
+    private BranchFingerprints saved() {
+        final ArgumentCaptor<BranchFingerprints> fingerprints = ArgumentCaptor.forClass(BranchFingerprints.class);
+        verify(commitFacade).saveBranchFingerprints(fingerprints.capture());
+        return fingerprints.getValue();
+    }
+
+    /**
+     * @return the fingerprints as read by the next analysis
+     */
+    private static BranchFingerprints reread(BranchFingerprints fingerprints) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        fingerprints.writeTo(new DataOutputStream(bytes));
+        return BranchFingerprints.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.write(temp.getRoot().toPath().resolve(path), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the sorted inline comments, followed by the global comment and the status description
+     */
+    private List<String> classify(List<Issue> issues, int parallelism) throws IOException {
+        reset(commitFacade);
+        postedComments.clear();
+        when(commitFacade.createReviewComment(anyString(), anyInt(), anyString())).then(invocation -> {
+            postedComments.add(invocation.getArgument(0) + ":" + invocation.getArgument(1) + "\n" + invocation.getArgument(2));
+            return true;
+        });
+        when(commitFacade.hasFileLine(anyString(), anyInt())).then(invocation -> (int) invocation.getArgument(1) % 3 != 0);
+        settings.setProperty("sonar.gitlab.classification_parallelism", parallelism);
+        execute(issues.toArray(new Issue[0]));
+
+        final ArgumentCaptor<String> globalComment = ArgumentCaptor.forClass(String.class);
+        verify(commitFacade).addGlobalComment(globalComment.capture());
+        final ArgumentCaptor<String> statusDescription = ArgumentCaptor.forClass(String.class);
+        verify(commitFacade).createOrUpdateSonarQubeStatus(eq("success"), statusDescription.capture());
+
+        final List<String> result = new ArrayList<>(postedComments);
+        Collections.sort(result);
+        result.add(globalComment.getValue());
+        result.add(statusDescription.getValue());
+        return result;
+    }
+
+    private void execute(Issue... issues) {
+        final ProjectIssues projectIssues = mock(ProjectIssues.class);
+        when(projectIssues.issues()).thenReturn(Arrays.asList(issues));
+        new CommitIssuePostJob(new GitLabPluginConfiguration(settings), commitFacade, projectIssues, inputFileCache, new MarkDownUtils(settings),
+                new GitLabMetrics())
+                .execute(mock(PostJobContext.class));
+    }
+
+    private Issue issue(String path, int line, String message, boolean isNew) {
+        final String componentKey = "project:" + path;
+        when(inputFileCache.byKey(componentKey)).thenReturn(new DefaultInputFile("project", path).setModuleBaseDir(temp.getRoot().toPath()));
+        when(inputFileCache.pathByKey(componentKey)).thenReturn(path);
+
+        final Issue issue = mock(Issue.class);
+        when(issue.componentKey()).thenReturn(componentKey);
+        when(issue.line()).thenReturn(line);
+        when(issue.message()).thenReturn(message);
+        when(issue.severity()).thenReturn(Severity.MAJOR);
+        when(issue.ruleKey()).thenReturn(RuleKey.of("squid", "S1"));
+        when(issue.isNew()).thenReturn(isNew);
+        return issue;
+    }
+
+}
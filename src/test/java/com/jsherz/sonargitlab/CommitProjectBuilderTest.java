@@ -2,6 +2,7 @@ package com.jsherz.sonargitlab;
 
 import com.synaptix.sonar.plugins.gitlab.CommitFacade;
 import com.synaptix.sonar.plugins.gitlab.CommitProjectBuilder;
+import com.synaptix.sonar.plugins.gitlab.GitLabMetrics;
 import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
 import org.junit.Test;
 import org.sonar.api.batch.bootstrap.ProjectBuilder;
@@ -19,13 +20,13 @@ public class CommitProjectBuilderTest {
     public void testDisabledPluginDoesntDoAnything() {
         final Settings settings = new Settings();
         final GitLabPluginConfiguration gitLabPluginConfiguration = new GitLabPluginConfiguration(settings);
-        final CommitFacade commitFacade = spy(new CommitFacade(gitLabPluginConfiguration));
-        final CommitProjectBuilder commitProjectBuilder = new CommitProjectBuilder(gitLabPluginConfiguration, commitFacade, settings);
+        final CommitFacade commitFacade = spy(new CommitFacade(gitLabPluginConfiguration, new GitLabMetrics()));
+        final CommitProjectBuilder commitProjectBuilder = new CommitProjectBuilder(gitLabPluginConfiguration, commitFacade, settings, new GitLabMetrics());
 
         commitProjectBuilder.build(null);
 
         verify(commitFacade, never()).init(any());
-        verify(commitFacade, never()).createOrUpdateSonarQubeStatus(any(), any());
+        verify(commitFacade, never()).createOrUpdateSonarQubeStatusAsync(any(), any());
     }
 
     @Test
@@ -35,13 +36,14 @@ public class CommitProjectBuilderTest {
 
         final GitLabPluginConfiguration gitLabPluginConfiguration = new GitLabPluginConfiguration(settings);
         final CommitFacade commitFacade = mock(CommitFacade.class);
-        final CommitProjectBuilder commitProjectBuilder = new CommitProjectBuilder(gitLabPluginConfiguration, commitFacade, settings);
+        final CommitProjectBuilder commitProjectBuilder = new CommitProjectBuilder(gitLabPluginConfiguration, commitFacade, settings, new GitLabMetrics());
 
         final ProjectBuilder.Context context = () -> new ProjectReactor(ProjectDefinition.create());
         commitProjectBuilder.build(context);
 
         verify(commitFacade, times(1)).init(any());
-        verify(commitFacade, times(1)).createOrUpdateSonarQubeStatus(any(), any());
+        verify(commitFacade, times(1)).createOrUpdateSonarQubeStatusAsync(any(), any());
+        verify(commitFacade, never()).createOrUpdateSonarQubeStatus(any(), any());
     }
 
 }
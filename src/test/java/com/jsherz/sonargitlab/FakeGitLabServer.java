@@ -0,0 +1,272 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.CommitComment;
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.gitlab.api.models.GitlabProject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal GitLab API stand-in for tests that need to count or shape real HTTP exchanges.
+ */
+public class FakeGitLabServer implements AutoCloseable {
+
+    static {
+        // Like GitLab behind nginx, otherwise small responses on kept-alive connections wait for delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Handler> handlers = new LinkedHashMap<>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile long latencyMillis;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    public FakeGitLabServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Register a handler for a method and a regular expression matched against the raw (still encoded) path. The
+     * last registered handler matching a request answers it.
+     */
+    public FakeGitLabServer on(String method, String pathRegex, Handler handler) {
+        handlers.put(method + " " + pathRegex, handler);
+        return this;
+    }
+
+    /**
+     * Serve a project with the given id, under the namespace path "group/project-{id}".
+     */
+    public FakeGitLabServer withProject(int id) {
+        GitlabProject project = new GitlabProject();
+        project.setId(id);
+        project.setName("project-" + id);
+        project.setPathWithNamespace("group/project-" + id);
+        project.setNameWithNamespace("Group / project-" + id);
+        project.setWebUrl(url() + "/group/project-" + id);
+        return on("GET", "/api/v3/projects/(" + id + "|group%2Fproject-" + id + ")", request -> Response.json(project));
+    }
+
+    public FakeGitLabServer withCommitDiffs(int projectId, String sha, List<GitlabCommitDiff> diffs) {
+        return on("GET", "/api/v3/projects/" + projectId + "/repository/commits/" + sha + "/diff", request -> Response.json(diffs));
+    }
+
+    public FakeGitLabServer withCommitComments(int projectId, String sha, List<CommitComment> comments) {
+        return on("GET", "/api/v3/projects/" + projectId + "/repository/commits/" + sha + "/comments", request -> {
+            int perPage = request.intQuery("per_page", 20);
+            int from = Math.min(comments.size(), (request.intQuery("page", 1) - 1) * perPage);
+            return Response.json(comments.subList(from, Math.min(comments.size(), from + perPage)));
+        });
+    }
+
+    public FakeGitLabServer withCommitStatuses(int projectId, String sha) {
+        return on("POST", "/api/v3/projects/" + projectId + "/statuses/" + sha, request -> Response.status(201).body("{}"));
+    }
+
+    public FakeGitLabServer withLatency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Hold every request until the latch is released.
+     */
+    public FakeGitLabServer withGate(CountDownLatch gate) {
+        this.gate = gate;
+        return this;
+    }
+
+    public List<Request> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public int requestCount() {
+        return requests.size();
+    }
+
+    public void resetRequests() {
+        requests.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Request request = new Request(exchange);
+            requests.add(request);
+            gate.await();
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            Response response = dispatch(request);
+            byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+            if (response.gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(body);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            response.headers.forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+            exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response dispatch(Request request) throws IOException {
+        Handler matching = null;
+        for (Map.Entry<String, Handler> entry : handlers.entrySet()) {
+            String[] key = entry.getKey().split(" ", 2);
+            if (key[0].equals(request.method) && Pattern.matches(key[1], request.path)) {
+                matching = entry.getValue();
+            }
+        }
+        return matching != null ? matching.handle(request) : Response.status(404).body("{\"message\":\"404 Not found\"}");
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    public static final class Request {
+
+        public final String method;
+        public final String path;
+        public final Map<String, String> query = new HashMap<>();
+        public final Map<String, String> headers = new HashMap<>();
+        public final String body;
+        public final int remotePort;
+
+        private Request(HttpExchange exchange) throws IOException {
+            this.method = exchange.getRequestMethod();
+            this.remotePort = exchange.getRemoteAddress().getPort();
+            this.path = exchange.getRequestURI().getRawPath();
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String pair : rawQuery.split("&")) {
+                    String[] parts = pair.split("=", 2);
+                    query.put(decode(parts[0]), parts.length > 1 ? decode(parts[1]) : "");
+                }
+            }
+            exchange.getRequestHeaders().forEach((name, values) -> headers.put(name.toLowerCase(), values.get(0)));
+            this.body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+        }
+
+        public int intQuery(String name, int defaultValue) {
+            String value = query.get(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+
+        private static String decode(String value) throws UnsupportedEncodingException {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+    }
+
+    public static final class Response {
+
+        private final int status;
+        private final Map<String, String> headers = new HashMap<>();
+        private String body = "";
+        private boolean gzip;
+
+        private Response(int status) {
+            this.status = status;
+        }
+
+        public static Response status(int status) {
+            return new Response(status);
+        }
+
+        public static Response json(Object value) throws IOException {
+            return status(200).body(GitlabAPI.MAPPER.writeValueAsString(value));
+        }
+
+        public Response body(String body) {
+            this.body = body;
+            return this;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response gzip() {
+            this.gzip = true;
+            return this;
+        }
+    }
+
+}
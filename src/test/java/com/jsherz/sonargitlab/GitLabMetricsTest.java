@@ -0,0 +1,87 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.synaptix.sonar.plugins.gitlab.GitLabHttpClient;
+import com.synaptix.sonar.plugins.gitlab.GitLabMetrics;
+import com.synaptix.sonar.plugins.gitlab.UrlConnectionTransport;
+import org.gitlab.api.GitlabAPI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class GitLabMetricsTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testRequestsAreRecordedPerEndpointAndWritten() throws IOException {
+        final GitLabMetrics metrics = new GitLabMetrics();
+        final Path dir = temp.getRoot().toPath().resolve("work");
+        metrics.setOutputDir(dir);
+
+        try (FakeGitLabServer server = new FakeGitLabServer().withProject(1).withCommitComments(1, "abc", Collections.emptyList())) {
+            server.on("POST", "/api/v3/projects/1/repository/commits/abc/comments", request -> FakeGitLabServer.Response.status(201).body("{}"));
+            final GitLabHttpClient client = new GitLabHttpClient(server.url(), "token", new UrlConnectionTransport(1000, 1000),
+                    GitLabHttpClient.API_V3, metrics);
+
+            try (GitLabMetrics.Timer ignored = metrics.phase("bootstrap.project")) {
+                client.get("/projects/1");
+            }
+            client.get("/projects/1/repository/commits/abc/comments?per_page=100&page=1");
+            client.get("/projects/1/repository/commits/abc/comments?per_page=100&page=2");
+            client.post("/projects/1/repository/commits/abc/comments", Collections.singletonMap("note", "Bad code"));
+            assertThatThrownBy(() -> client.get("/projects/1/repository/commits/abc/diff")).isInstanceOf(IOException.class);
+        }
+        metrics.count("comment_retries", 2);
+        metrics.report();
+
+        final JsonNode json = GitlabAPI.MAPPER.readTree(dir.resolve(GitLabMetrics.JSON_FILE).toFile());
+        assertThat(json.path("phasesMillis").has("bootstrap.project")).isTrue();
+        final JsonNode comments = json.path("endpoints").path("GET /projects/:id/repository/commits/:sha/comments");
+        assertThat(comments.path("requests").asLong()).isEqualTo(2);
+        assertThat(comments.path("latencyBucketsMillis").path("+Inf").asLong()).isEqualTo(2);
+        assertThat(json.path("endpoints").path("POST /projects/:id/repository/commits/:sha/comments").path("bytesSent").asLong())
+                .isEqualTo("{\"note\":\"Bad code\"}".length());
+        assertThat(json.path("endpoints").path("GET /projects/:id/repository/commits/:sha/diff").path("failures").asLong()).isEqualTo(1);
+        assertThat(json.path("counters").path("comment_retries").asLong()).isEqualTo(2);
+
+        final String prometheus = new String(Files.readAllBytes(dir.resolve(GitLabMetrics.PROMETHEUS_FILE)), StandardCharsets.UTF_8);
+        assertThat(prometheus)
+                .contains("# TYPE sonar_gitlab_request_duration_seconds histogram\n")
+                .contains("sonar_gitlab_requests_total{endpoint=\"GET /projects/:id\"} 1\n")
+                .contains("sonar_gitlab_request_duration_seconds_bucket{endpoint=\"GET /projects/:id/repository/commits/:sha/comments\",le=\"+Inf\"} 2\n")
+                .contains("sonar_gitlab_events_total{event=\"comment_retries\"} 2\n")
+                .containsPattern("sonar_gitlab_phase_seconds\\{phase=\"bootstrap.project\"} \\d+\\.\\d{6}\n");
+    }
+
+}
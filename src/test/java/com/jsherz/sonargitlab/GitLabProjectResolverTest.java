@@ -0,0 +1,160 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.GitLabHttpClient;
+import com.synaptix.sonar.plugins.gitlab.GitLabProjectResolver;
+import org.gitlab.api.models.GitlabProject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class GitLabProjectResolverTest {
+
+    private static final int PER_PAGE = 20;
+
+    @Test
+    public void testRequestCountDoesNotDependOnVisibleProjectCount() throws IOException {
+        final List<Integer> fewProjects = requestCountsFor(10);
+        final List<Integer> manyProjects = requestCountsFor(5000);
+
+        assertThat(manyProjects).isEqualTo(fewProjects);
+        assertThat(manyProjects).allMatch(count -> count <= 2);
+    }
+
+    @Test
+    public void testIdPathAndUrlsAreFetchedDirectly() throws IOException {
+        try (FakeGitLabServer server = serverWithProjects(100)) {
+            final GitlabProject expected = project(server.url(), 42);
+
+            for (String projectId : new String[]{"42", expected.getPathWithNamespace(), expected.getHttpUrl(), expected.getSshUrl(), expected.getWebUrl()}) {
+                server.resetRequests();
+
+                assertThat(resolverFor(server).resolve(projectId).getId()).isEqualTo(42);
+                assertThat(server.requests()).extracting(Object::toString)
+                        .containsExactly("GET /api/v3/projects/" + ("42".equals(projectId) ? "42" : "group%2Fproject-42"));
+            }
+        }
+    }
+
+    @Test
+    public void testNameWithNamespaceStopsAtFirstMatchingPage() throws IOException {
+        try (FakeGitLabServer server = serverWithProjects(1000)) {
+            assertThat(resolverFor(server).resolve("Group / Project 7").getId()).isEqualTo(7);
+            assertThat(server.requestCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testSeveralMatchingProjectsFail() throws IOException {
+        try (FakeGitLabServer server = serverWithProjects(10, 3)) {
+            assertThatThrownBy(() -> resolverFor(server).resolve("Group / Project 3"))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Multiple found projects for Group / Project 3");
+        }
+    }
+
+    @Test
+    public void testUnknownProjectFails() throws IOException {
+        try (FakeGitLabServer server = serverWithProjects(10)) {
+            assertThatThrownBy(() -> resolverFor(server).resolve("nobody/nothing"))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Unable found project for nobody/nothing");
+        }
+    }
+
+    private List<Integer> requestCountsFor(int projectCount) throws IOException {
+        final List<Integer> counts = new ArrayList<>();
+        try (FakeGitLabServer server = serverWithProjects(projectCount)) {
+            final GitlabProject target = project(server.url(), 5);
+            for (String projectId : new String[]{"5", target.getPathWithNamespace(), target.getHttpUrl(), target.getSshUrl(),
+                    target.getWebUrl(), target.getNameWithNamespace()}) {
+                server.resetRequests();
+                resolverFor(server).resolve(projectId);
+                counts.add(server.requestCount());
+            }
+        }
+        return counts;
+    }
+
+    private static GitLabProjectResolver resolverFor(FakeGitLabServer server) {
+        return new GitLabProjectResolver(new GitLabHttpClient(server.url(), "token"), server.url());
+    }
+
+    private static FakeGitLabServer serverWithProjects(int count) throws IOException {
+        return serverWithProjects(count, 0);
+    }
+
+    /**
+     * @param sameNameAs id of a project whose name is given to one more project, in another path, 0 for none
+     */
+    private static FakeGitLabServer serverWithProjects(int count, int sameNameAs) throws IOException {
+        final FakeGitLabServer server = new FakeGitLabServer();
+        final List<GitlabProject> projects = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            projects.add(project(server.url(), i));
+        }
+        if (sameNameAs > 0) {
+            final GitlabProject twin = project(server.url(), count + 1);
+            twin.setName("Project " + sameNameAs);
+            twin.setNameWithNamespace("Group / Project " + sameNameAs);
+            projects.add(twin);
+        }
+        final Function<String, GitlabProject> byIdOrPath = idOrPath -> projects.stream()
+                .filter(p -> idOrPath.equals(String.valueOf(p.getId())) || idOrPath.equals(p.getPathWithNamespace()))
+                .findFirst().orElse(null);
+
+        server.on("GET", "/api/v3/projects", request -> {
+            final String search = request.query.getOrDefault("search", "");
+            final List<GitlabProject> found = projects.stream().filter(p -> p.getName().contains(search)).collect(Collectors.toList());
+            final int perPage = request.intQuery("per_page", PER_PAGE);
+            final int from = Math.min(found.size(), (request.intQuery("page", 1) - 1) * perPage);
+            return FakeGitLabServer.Response.json(found.subList(from, Math.min(found.size(), from + perPage)));
+        });
+        server.on("GET", "/api/v3/projects/[^/]+", request -> {
+            final GitlabProject project = byIdOrPath.apply(URLDecoder.decode(request.path.substring("/api/v3/projects/".length()), StandardCharsets.UTF_8.name()));
+            return project == null ? FakeGitLabServer.Response.status(404).body("{\"message\":\"404 Project Not Found\"}") : FakeGitLabServer.Response.json(project);
+        });
+        return server;
+    }
+
+    private static GitlabProject project(String url, int id) {
+        final GitlabProject project = new GitlabProject();
+        project.setId(id);
+        project.setName("Project " + id);
+        project.setNameWithNamespace("Group / Project " + id);
+        project.setPathWithNamespace("group/project-" + id);
+        project.setHttpUrl(url + "/group/project-" + id + ".git");
+        project.setSshUrl("git@127.0.0.1:group/project-" + id + ".git");
+        project.setWebUrl(url + "/group/project-" + id);
+        return project;
+    }
+
+}
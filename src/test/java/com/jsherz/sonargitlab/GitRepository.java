@@ -0,0 +1,107 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Git repository generated on disk with the git executable, for tests that need real commits.
+ */
+public class GitRepository {
+
+    private final File dir;
+
+    private GitRepository(File dir) {
+        this.dir = dir;
+    }
+
+    public static GitRepository init(File dir) throws IOException {
+        final GitRepository repository = new GitRepository(dir);
+        repository.git("init", "-q");
+        return repository;
+    }
+
+    public static GitRepository shallowClone(GitRepository origin, File dir) throws IOException {
+        final GitRepository clone = new GitRepository(dir.getParentFile());
+        clone.git("clone", "-q", "--depth", "1", "file://" + origin.dir.getAbsolutePath(), dir.getName());
+        return new GitRepository(dir);
+    }
+
+    public File dir() {
+        return dir;
+    }
+
+    public GitRepository write(String path, String content) throws IOException {
+        return write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public GitRepository write(String path, byte[] content) throws IOException {
+        final File file = new File(dir, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content);
+        return this;
+    }
+
+    /**
+     * Stage everything and commit it.
+     *
+     * @return the SHA of the new commit
+     */
+    public String commit(String message) throws IOException {
+        git("add", "-A");
+        git("commit", "-q", "-m", message);
+        return git("rev-parse", "HEAD").trim();
+    }
+
+    public String git(String... args) throws IOException {
+        final List<String> command = new ArrayList<>(Arrays.asList("git", "-c", "user.name=Test", "-c", "user.email=test@example.com",
+                "-c", "commit.gpgsign=false", "-c", "core.autocrlf=false"));
+        command.addAll(Arrays.asList(args));
+        final Process process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+        try (InputStream in = process.getInputStream()) {
+            final String output = IOUtils.toString(in, StandardCharsets.UTF_8);
+            if (process.waitFor() != 0) {
+                throw new IOException(String.join(" ", command) + " failed: " + output);
+            }
+            return output;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    public static String lines(int from, int to) {
+        final StringBuilder content = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        return content.toString();
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
+import com.synaptix.sonar.plugins.gitlab.GlobalReport;
+import com.synaptix.sonar.plugins.gitlab.MarkDownUtils;
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class GlobalReportTest {
+
+    private static final String NOTE = "\nNote: the following issues could not be reported as comments because they are located on lines that are not displayed in this commit:\n";
+
+    private final Settings settings = new Settings();
+
+    public GlobalReportTest() {
+        settings.setProperty("sonar.host.url", "http://sonar");
+        settings.setProperty("sonar.gitlab.max_global_issues", 2);
+    }
+
+    @Test
+    public void testOnlyTheFirstIssuesOfTheMostSevereAreListed() {
+        final GlobalReport report = report();
+        report.process(issue(Severity.MINOR, "Minor 1"), null, false);
+        report.process(issue(Severity.MAJOR, "Major 1"), null, true);
+        report.process(issue(Severity.BLOCKER, "Blocker 1"), "http://gitlab/Foo.java#L1", false);
+        report.process(issue(Severity.MINOR, "Minor 2"), null, false);
+        report.process(issue(Severity.MINOR, "Minor 3"), null, false);
+
+        assertThat(report.formatForMarkdown()).isEqualTo("SonarQube analysis reported 5 issues:\n"
+                + "* :no_entry: 1 blocker\n"
+                + "* :warning: 1 major\n"
+                + "* :arrow_down_small: 3 minor\n"
+                + "\nWatch the comments in this conversation to review them."
+                + NOTE
+                + "* :no_entry: [Blocker 1](http://gitlab/Foo.java#L1) [:blue_book:](http://sonar/coding_rules#rule_key=squid%3AS1)\n"
+                + "* :arrow_down_small: Minor 1 (project:Foo.java) [:blue_book:](http://sonar/coding_rules#rule_key=squid%3AS1)\n"
+                + "* ... 2 more\n");
+    }
+
+    @Test
+    public void testMergedReportsListTheSameIssuesAsASingleReport() {
+        final GlobalReport single = report();
+        final GlobalReport first = report();
+        final GlobalReport second = report();
+        for (int i = 0; i < 6; i++) {
+            final Issue issue = issue(i % 2 == 0 ? Severity.MAJOR : Severity.CRITICAL, "Issue " + i);
+            single.process(issue, null, i == 3);
+            (i < 3 ? first : second).process(issue, null, i == 3);
+        }
+
+        first.merge(second);
+
+        assertThat(first.formatForMarkdown()).isEqualTo(single.formatForMarkdown()).endsWith("* ... 3 more\n");
+        assertThat(first.getStatusDescription()).isEqualTo(single.getStatusDescription());
+    }
+
+    @Test
+    public void testIssuesOverTheCommentLimitsAreListedUnderTheirOwnNote() {
+        final GlobalReport report = report();
+        report.process(issue(Severity.MAJOR, "Major 1"), null, false);
+        report.overCommentLimits(issue(Severity.CRITICAL, "Critical 1"), "http://gitlab/Foo.java#L2");
+        report.overCommentLimits(issue(Severity.MINOR, "Minor 1"), "http://gitlab/Foo.java#L3");
+
+        assertThat(report.formatForMarkdown()).isEqualTo("SonarQube analysis reported 3 issues:\n"
+                + "* :no_entry_sign: 1 critical\n"
+                + "* :warning: 1 major\n"
+                + "* :arrow_down_small: 1 minor\n"
+                + "\nWatch the comments in this conversation to review them."
+                + NOTE
+                + "* :warning: Major 1 (project:Foo.java) [:blue_book:](http://sonar/coding_rules#rule_key=squid%3AS1)\n"
+                + "\nNote: the following issues are not reported as comments because the maximum number of inline comments per file or per commit is reached:\n"
+                + "* :no_entry_sign: [Critical 1](http://gitlab/Foo.java#L2) [:blue_book:](http://sonar/coding_rules#rule_key=squid%3AS1)\n"
+                + "* ... 1 more\n");
+    }
+
+    @Test
+    public void testIssuesReportedOnEarlierCommitsAreListedUnderTheirOwnNote() {
+        final GlobalReport report = report();
+        report.previouslyReported(issue(Severity.MAJOR, "Major 1"), "http://gitlab/project/commit/abc");
+
+        assertThat(report.formatForMarkdown()).isEqualTo("SonarQube analysis reported 1 issue:\n"
+                + "* :warning: 1 major\n"
+                + "\nWatch the comments in this conversation to review them."
+                + "\nNote: the following issues are not reported as comments because they are already reported on an earlier commit of this branch, each one links to its commit:\n"
+                + "* :warning: [Major 1](http://gitlab/project/commit/abc) [:blue_book:](http://sonar/coding_rules#rule_key=squid%3AS1)\n");
+    }
+
+    @Test
+    public void testGlobalCommentStaysUnderTheMaxCommentSize() {
+        settings.setProperty("sonar.gitlab.max_global_issues", 1000);
+        settings.setProperty("sonar.gitlab.max_comment_size", 2000);
+        final GlobalReport report = report();
+        for (int i = 0; i < 100; i++) {
+            report.process(issue(Severity.MAJOR, "Issue " + i), null, false);
+        }
+
+        final String markdown = report.formatForMarkdown();
+
+        assertThat(markdown.length()).isLessThanOrEqualTo(2000);
+        assertThat(markdown).contains("* :warning: Issue 0 ").doesNotContain("Issue 99").containsPattern("\\* \\.\\.\\. \\d+ more\n$");
+    }
+
+    private GlobalReport report() {
+        return new GlobalReport(new GitLabPluginConfiguration(settings), new MarkDownUtils(settings));
+    }
+
+    private static Issue issue(String severity, String message) {
+        final Issue issue = mock(Issue.class);
+        when(issue.severity()).thenReturn(severity);
+        when(issue.message()).thenReturn(message);
+        when(issue.ruleKey()).thenReturn(RuleKey.of("squid", "S1"));
+        when(issue.componentKey()).thenReturn("project:Foo.java");
+        return issue;
+    }
+
+}
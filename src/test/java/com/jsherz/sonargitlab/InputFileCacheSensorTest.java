@@ -0,0 +1,123 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.CommitFacade;
+import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
+import com.synaptix.sonar.plugins.gitlab.InputFileCache;
+import com.synaptix.sonar.plugins.gitlab.InputFileCacheSensor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.batch.fs.InputPath;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.config.Settings;
+import org.sonar.api.resources.Project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+
+public class InputFileCacheSensorTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testAllModeIndexesEveryFileOfALargeModule() throws IOException {
+        final File moduleDir = temp.newFolder("module");
+        final DefaultFileSystem fs = new DefaultFileSystem(moduleDir);
+        for (int i = 0; i < 2500; i++) {
+            fs.add(new DefaultInputFile("project:module", "src/File" + i + ".java").setModuleBaseDir(moduleDir.toPath()));
+        }
+
+        final CommitFacade commitFacade = mock(CommitFacade.class);
+        when(commitFacade.getPath(any(InputPath.class))).then(invocation -> "module/" + ((InputPath) invocation.getArgument(0)).relativePath());
+        final SensorContext context = mock(SensorContext.class);
+        final Set<Thread> contextThreads = ConcurrentHashMap.newKeySet();
+        when(context.getResource(any(InputPath.class))).then(invocation -> {
+            contextThreads.add(Thread.currentThread());
+            final String relativePath = ((InputPath) invocation.getArgument(0)).relativePath();
+            return org.sonar.api.resources.File.create(relativePath).setEffectiveKey("project:module:" + relativePath);
+        });
+
+        final InputFileCache inputFileCache = new InputFileCache();
+        new InputFileCacheSensor(new GitLabPluginConfiguration(new Settings()), fs, inputFileCache, commitFacade).analyse(mock(Project.class), context);
+        final InputFileCache snapshot = inputFileCache.snapshot();
+
+        assertThat(contextThreads).containsExactly(Thread.currentThread());
+        assertThat(snapshot.size()).isEqualTo(2500);
+        for (int i = 0; i < 2500; i++) {
+            assertThat(snapshot.pathByKey("project:module:src/File" + i + ".java")).isEqualTo("module/src/File" + i + ".java");
+        }
+        assertThat(snapshot.byKey("project:module:src/File2500.java")).isNull();
+        long retainedBytes = 0;
+        for (int i = 0; i < 2500; i++) {
+            retainedBytes += 32 + 24 + 40 + 2 * ("project:module:src/File" + i + ".java").length() + 40 + 2 * ("module/src/File" + i + ".java").length();
+        }
+        assertThat(inputFileCache.retainedBytes()).isEqualTo(retainedBytes);
+    }
+
+    @Test
+    public void testDiffModeOnlyIndexesChangedFilesAndLooksUpTheOthers() throws IOException {
+        final File moduleDir = temp.newFolder("module");
+        final DefaultFileSystem fs = new DefaultFileSystem(moduleDir);
+        fs.add(new DefaultInputFile("project:module", "src/Foo.java").setModuleBaseDir(moduleDir.toPath()));
+        fs.add(new DefaultInputFile("project:module", "src/Bar.java").setModuleBaseDir(moduleDir.toPath()));
+
+        final CommitFacade commitFacade = mock(CommitFacade.class);
+        when(commitFacade.getPath(moduleDir)).thenReturn("module");
+        when(commitFacade.getChangedFiles()).thenReturn(Arrays.asList("module/src/Foo.java", "other/src/Foo.java"));
+        final Project module = mock(Project.class);
+        when(module.getEffectiveKey()).thenReturn("project:module");
+        final SensorContext context = mock(SensorContext.class);
+
+        final Settings settings = new Settings();
+        settings.setProperty("sonar.gitlab.input_file_cache", "diff");
+        final InputFileCache inputFileCache = new InputFileCache();
+        new InputFileCacheSensor(new GitLabPluginConfiguration(settings), fs, inputFileCache, commitFacade).analyse(module, context);
+
+        verifyZeroInteractions(context);
+        assertThat(inputFileCache.size()).isEqualTo(1);
+        assertThat(inputFileCache.pathByKey("project:module:src/Foo.java")).isEqualTo("module/src/Foo.java");
+
+        final long retainedBytes = inputFileCache.retainedBytes();
+        final InputFileCache snapshot = inputFileCache.snapshot();
+        assertThat(snapshot.byKey("project:module:src/Bar.java")).isNotNull();
+        assertThat(snapshot.pathByKey("project:module:src/Bar.java")).isEqualTo("module/src/Bar.java");
+        assertThat(inputFileCache.byKey("project:module:src/Missing.java")).isNull();
+        assertThat(inputFileCache.byKey("project:other:src/Foo.java")).isNull();
+        assertThat(inputFileCache.size()).isEqualTo(2);
+        assertThat(snapshot.size()).isEqualTo(2);
+        assertThat(inputFileCache.retainedBytes()).isGreaterThan(retainedBytes).isEqualTo(snapshot.retainedBytes());
+    }
+
+}
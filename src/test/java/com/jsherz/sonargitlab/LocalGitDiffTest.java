@@ -0,0 +1,144 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.ChangedLineIndex;
+import com.synaptix.sonar.plugins.gitlab.LocalGitDiff;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static com.jsherz.sonargitlab.GitRepository.lines;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class LocalGitDiffTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testModifiedRenamedDeletedAndBinaryFiles() throws IOException {
+        final GitRepository repository = GitRepository.init(temp.newFolder("repo"))
+                .write("src/Keep.java", lines(1, 20))
+                .write("src/Old.java", lines(1, 30))
+                .write("src/Deleted.java", lines(1, 5))
+                .write("image.bin", new byte[]{0, 1, 2, 3, 0, 5});
+        repository.commit("Initial");
+        repository.write("src/Keep.java", lines(1, 9) + "changed\n" + lines(11, 20))
+                .write("src/New.java", lines(1, 4) + "changed\n" + lines(6, 30))
+                .write("image.bin", new byte[]{0, 1, 2, 4, 0, 5});
+        repository.git("rm", "-q", "src/Old.java", "src/Deleted.java");
+        final String sha = repository.commit("Change");
+
+        final ChangedLineIndex index = new LocalGitDiff(repository.dir()).changedLines(sha);
+
+        assertThat(index.hasLine("src/Keep.java", 6)).isFalse();
+        assertThat(index.hasLine("src/Keep.java", 7)).isTrue();
+        assertThat(index.hasLine("src/Keep.java", 10)).isTrue();
+        assertThat(index.hasLine("src/Keep.java", 13)).isTrue();
+        assertThat(index.hasLine("src/Keep.java", 14)).isFalse();
+        assertThat(index.hasFile("src/Old.java")).isFalse();
+        assertThat(index.hasLine("src/New.java", 5)).isTrue();
+        assertThat(index.hasLine("src/New.java", 20)).isFalse();
+        assertThat(index.hasFile("src/Deleted.java")).isTrue();
+        assertThat(index.hasFile("image.bin")).isTrue();
+        assertThat(index.hasLine("image.bin", 1)).isFalse();
+        assertThat(index.fileCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testDiffSettingsOfTheRepositoryAreIgnored() throws IOException {
+        final GitRepository repository = GitRepository.init(temp.newFolder("repo"))
+                .write("src/Old.java", lines(1, 30));
+        repository.commit("Initial");
+        repository.git("config", "diff.context", "0");
+        repository.git("config", "diff.renames", "false");
+        repository.git("mv", "src/Old.java", "src/New.java");
+        repository.write("src/New.java", lines(1, 9) + "changed\n" + lines(11, 30));
+        final String sha = repository.commit("Rename");
+
+        final ChangedLineIndex index = new LocalGitDiff(repository.dir()).changedLines(sha);
+
+        assertThat(index.hasFile("src/Old.java")).isFalse();
+        assertThat(index.hasLine("src/New.java", 6)).isFalse();
+        assertThat(index.hasLine("src/New.java", 7)).isTrue();
+        assertThat(index.hasLine("src/New.java", 10)).isTrue();
+        assertThat(index.hasLine("src/New.java", 13)).isTrue();
+        assertThat(index.hasLine("src/New.java", 14)).isFalse();
+        assertThat(index.fileCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHugeHunksAndSpecialPathsAreComplete() throws IOException {
+        final GitRepository repository = GitRepository.init(temp.newFolder("repo"))
+                .write("README", "readme\n");
+        repository.commit("Initial");
+        final String specialPath = "dir with space/\"quoted\"\t\\.txt";
+        repository.write("huge.txt", lines(1, 200_000)).write(specialPath, lines(1, 3));
+        final String sha = repository.commit("Huge");
+
+        final ChangedLineIndex index = new LocalGitDiff(repository.dir()).changedLines(sha);
+
+        assertThat(index.hasLine("huge.txt", 1)).isTrue();
+        assertThat(index.hasLine("huge.txt", 200_000)).isTrue();
+        assertThat(index.hasLine("huge.txt", 200_001)).isFalse();
+        assertThat(index.rangeCount()).isEqualTo(2);
+        assertThat(index.hasLine(specialPath, 3)).isTrue();
+    }
+
+    @Test
+    public void testRootCommitIsComparedToEmptyTree() throws IOException {
+        final GitRepository repository = GitRepository.init(temp.newFolder("repo"))
+                .write("src/Foo.java", lines(1, 12));
+        final String sha = repository.commit("Initial");
+
+        final ChangedLineIndex index = new LocalGitDiff(repository.dir()).changedLines(sha);
+
+        assertThat(index.hasLine("src/Foo.java", 1)).isTrue();
+        assertThat(index.hasLine("src/Foo.java", 12)).isTrue();
+    }
+
+    @Test
+    public void testShallowCloneWithoutParentFails() throws IOException {
+        final GitRepository origin = GitRepository.init(temp.newFolder("origin")).write("a.txt", lines(1, 3));
+        origin.commit("Initial");
+        final String sha = origin.write("a.txt", lines(1, 4)).commit("Second");
+        final GitRepository clone = GitRepository.shallowClone(origin, temp.getRoot().toPath().resolve("clone").toFile());
+
+        assertThatThrownBy(() -> new LocalGitDiff(clone.dir()).changedLines(sha))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("shallow");
+    }
+
+    @Test
+    public void testUnknownCommitFails() throws IOException {
+        final GitRepository repository = GitRepository.init(temp.newFolder("repo")).write("a.txt", "a\n");
+        repository.commit("Initial");
+
+        assertThatThrownBy(() -> new LocalGitDiff(repository.dir()).changedLines("0123456789abcdef0123456789abcdef01234567"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("failed with exit code");
+    }
+
+}
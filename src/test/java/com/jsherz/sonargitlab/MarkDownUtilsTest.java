@@ -184,12 +184,25 @@ public class MarkDownUtilsTest {
                 .hasMessage("componentKey must not be null");
     }
 
+    @Test
+    public void testAppendsIssuesToTheSuppliedBuilder() {
+        final MarkDownUtils markDownUtils = buildUtilsWithBaseUrl("https://localhost:8443/sonar");
+        final StringBuilder sb = new StringBuilder("* ");
+
+        markDownUtils.appendInlineIssue(sb, Severity.INFO, "Your code is bad.", "bad_code").append("\n* ");
+        markDownUtils.appendGlobalIssue(sb, Severity.MAJOR, "This is a violation.", "bad_code", null, "com.major.mess");
+
+        assertThat(sb.toString()).isEqualTo("* " + markDownUtils.inlineIssue(Severity.INFO, "Your code is bad.", "bad_code")
+                + "\n* :warning: This is a violation. (com.major.mess) [:blue_book:](https://localhost:8443/sonar/coding_rules#rule_key=bad_code)");
+    }
+
     @Test
     public void testBuildsCorrectRuleLink() {
         final MarkDownUtils markDownUtils = buildUtilsWithBaseUrl("http://www.sonarz.io/kewl-sonar");
 
         assertThat(markDownUtils.getRuleLink("rule$_r0ck"))
                 .isEqualTo("[:blue_book:](http://www.sonarz.io/kewl-sonar/coding_rules#rule_key=rule%24_r0ck)");
+        assertThat(markDownUtils.getRuleLink("rule$_r0ck")).isSameAs(markDownUtils.getRuleLink("rule$_r0ck"));
     }
 
     @Test
@@ -0,0 +1,206 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.google.common.collect.ImmutableList;
+import com.synaptix.sonar.plugins.gitlab.PatchParser;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class PatchParserTest {
+
+    private static final String MULTI_HUNK = "@@ -1,6 +1,7 @@\n"
+            + " package com.example;\n"
+            + " \n"
+            + "+import java.util.List;\n"
+            + " import java.util.Map;\n"
+            + " \n"
+            + " /**\n"
+            + "@@ -40,8 +41,7 @@ public class Foo {\n"
+            + "     private final Map<String, String> values;\n"
+            + " \n"
+            + "-    public Foo() {\n"
+            + "-        this.values = null;\n"
+            + "+    public Foo(Map<String, String> values) {\n"
+            + "+        this.values = values;\n"
+            + "     }\n"
+            + "-\n"
+            + " \n"
+            + "     public String get(String key) {\n";
+
+    private static final String NO_NEWLINE = "@@ -10,3 +10,3 @@\n"
+            + " a\n"
+            + " b\n"
+            + "-c\n"
+            + "\\ No newline at end of file\n"
+            + "+c\n"
+            + "+d\n"
+            + "\\ No newline at end of file\n";
+
+    private static final String NEW_FILE = "@@ -0,0 +1,3 @@\n"
+            + "+first\n"
+            + "+second\n"
+            + "+third\n";
+
+    private static final String DELETED_FILE = "@@ -1,3 +0,0 @@\n"
+            + "-first\n"
+            + "-second\n"
+            + "-third\n";
+
+    private static final String PURE_DELETION_HUNK = "@@ -5,2 +4,0 @@\n"
+            + "-gone\n"
+            + "-also gone\n"
+            + "@@ -20 +18 @@\n"
+            + "-old\n"
+            + "+new\n";
+
+    private static final String CRLF = "@@ -1,2 +1,3 @@\r\n"
+            + " one\r\n"
+            + "+two\r\n"
+            + " three\r\n";
+
+    @Test
+    public void testMatchesLegacyParserOnRealWorldPatches() throws IOException {
+        for (String patch : ImmutableList.of(MULTI_HUNK, NO_NEWLINE, NEW_FILE, DELETED_FILE, PURE_DELETION_HUNK, CRLF, "")) {
+            assertThat(parse(patch)).as(patch).isEqualTo(legacyParse(patch));
+        }
+    }
+
+    @Test
+    public void testMatchesLegacyParserOnLargeGeneratedPatch() throws IOException {
+        final String patch = generatePatch(new Random(42), 2000);
+
+        assertThat(parse(patch)).isEqualTo(legacyParse(patch));
+    }
+
+    @Test
+    public void testReportsContiguousRanges() {
+        final List<String> ranges = new ArrayList<>();
+        PatchParser.parse(MULTI_HUNK, (first, last) -> ranges.add(first + "-" + last));
+
+        assertThat(ranges).containsExactly("1-6", "41-47");
+    }
+
+    @Test
+    public void testReportsUnmodifiedRangesWithTheirOldLines() {
+        final List<String> ranges = new ArrayList<>();
+        PatchParser.parse(MULTI_HUNK, (first, last) -> {
+        }, (first, last, firstOld) -> ranges.add(first + "-" + last + "@" + firstOld));
+
+        assertThat(ranges).containsExactly("1-2@1", "4-6@3", "41-42@40", "45-45@44", "46-47@46");
+    }
+
+    @Test
+    public void testZeroLengthHunksReportNothing() {
+        assertThat(parse(DELETED_FILE)).isEmpty();
+        assertThat(parse(PURE_DELETION_HUNK)).containsExactly(18);
+    }
+
+    @Test
+    public void testRejectsMalformedHunkHeader() {
+        assertThatThrownBy(() -> parse("@@ -a,3 +1,2 @@\n+x\n"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith("Unable to parse patch line @@ -a,3 +1,2 @@");
+
+        assertThatThrownBy(() -> parse("@@ -1,3 +1,2\n+x\n"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static Set<Integer> parse(String patch) {
+        final Set<Integer> lines = new TreeSet<>();
+        PatchParser.parse(patch, (first, last) -> {
+            for (int line = first; line <= last; line++) {
+                lines.add(line);
+            }
+        });
+        return lines;
+    }
+
+    /**
+     * The regular expression based parser this plugin used before {@link PatchParser}.
+     */
+    private static Set<Integer> legacyParse(String patch) throws IOException {
+        final Set<Integer> lines = new TreeSet<>();
+        int currentLine = -1;
+        for (String line : IOUtils.readLines(new StringReader(patch))) {
+            if (line.startsWith("@")) {
+                Matcher matcher = Pattern.compile("@@\\p{Space}-[0-9]+(?:,[0-9]+)?\\p{Space}\\+([0-9]+)(?:,[0-9]+)?\\p{Space}@@.*").matcher(line);
+                if (!matcher.matches()) {
+                    throw new IllegalStateException("Unable to parse patch line " + line + "\nFull patch: \n" + patch);
+                }
+                currentLine = Integer.parseInt(matcher.group(1));
+            } else if (line.startsWith("+") || line.startsWith(" ")) {
+                lines.add(currentLine);
+                currentLine++;
+            }
+        }
+        return lines;
+    }
+
+    private static String generatePatch(Random random, int hunks) {
+        final StringBuilder sb = new StringBuilder();
+        int oldLine = 1;
+        int newLine = 1;
+        for (int h = 0; h < hunks; h++) {
+            oldLine += random.nextInt(50);
+            newLine += random.nextInt(50);
+            final StringBuilder body = new StringBuilder();
+            int oldCount = 0;
+            int newCount = 0;
+            for (int i = 0, n = random.nextInt(20); i < n; i++) {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        body.append("-removed ").append(i).append('\n');
+                        oldCount++;
+                        break;
+                    case 1:
+                        body.append("+added ").append(i).append('\n');
+                        newCount++;
+                        break;
+                    default:
+                        body.append(" context ").append(i).append('\n');
+                        oldCount++;
+                        newCount++;
+                        break;
+                }
+            }
+            sb.append("@@ -").append(oldLine).append(',').append(oldCount).append(" +").append(newLine).append(',').append(newCount)
+                    .append(" @@ section ").append(h).append('\n').append(body);
+            oldLine += oldCount;
+            newLine += newCount;
+        }
+        return sb.toString();
+    }
+
+}
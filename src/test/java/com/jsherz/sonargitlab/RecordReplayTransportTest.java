@@ -0,0 +1,130 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.synaptix.sonar.plugins.gitlab.CommitFacade;
+import com.synaptix.sonar.plugins.gitlab.GitLabMetrics;
+import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabCommitDiff;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class RecordReplayTransportTest {
+
+    private static final String COMMENTS_PATH = "/api/v3/projects/1/repository/commits/abc/comments";
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testRecordedExchangesAreReplayedOffline() throws IOException {
+        temp.newFolder(".git");
+        final Path record = temp.getRoot().toPath().resolve("record/gitlab.jsonl");
+
+        try (FakeGitLabServer server = commitServer()) {
+            final Settings settings = settings(server.url());
+            settings.setProperty("sonar.gitlab.record_file", record.toString());
+            final CommitFacade commitFacade = initFacade(settings);
+
+            assertThat(commitFacade.hasFileLine("src/Foo.java", 2)).isTrue();
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 2, "Bad code\n")).isTrue();
+        }
+        assertThat(Files.readAllLines(record, StandardCharsets.UTF_8)).hasSize(4).filteredOn(line -> line.contains("secret-token")).isEmpty();
+
+        final Settings settings = settings("http://127.0.0.1:1");
+        settings.setProperty("sonar.gitlab.replay_file", record.toString());
+        final CommitFacade commitFacade = initFacade(settings);
+
+        assertThat(commitFacade.hasFileLine("src/Foo.java", 2)).isTrue();
+        assertThat(commitFacade.hasFileLine("src/Foo.java", 4)).isFalse();
+        assertThat(commitFacade.getGitLabUrl("src/Foo.java", 2)).endsWith("/group/project-1/blob/abc/src/Foo.java#L2");
+        assertThat(commitFacade.createReviewComment("src/Foo.java", 2, "Other code\n")).isTrue();
+    }
+
+    @Test
+    public void testDryRunWritesPlannedRequestsInsteadOfSendingThem() throws IOException {
+        temp.newFolder(".git");
+        final Path dryRun = temp.getRoot().toPath().resolve("dry-run.jsonl");
+
+        try (FakeGitLabServer server = commitServer().withCommitStatuses(1, "abc")) {
+            final Settings settings = settings(server.url());
+            settings.setProperty("sonar.gitlab.dry_run_file", dryRun.toString());
+            final CommitFacade commitFacade = initFacade(settings);
+
+            assertThat(commitFacade.createReviewComment("src/Foo.java", 2, "Bad code\n")).isTrue();
+            commitFacade.addGlobalComment("SonarQube analysis reported 1 issue\n");
+            commitFacade.createOrUpdateSonarQubeStatus("success", "SonarQube reported 1 issue");
+
+            assertThat(server.requests()).filteredOn(request -> "POST".equals(request.method)).isEmpty();
+        }
+
+        final List<JsonNode> planned = new ArrayList<>();
+        for (String line : Files.readAllLines(dryRun, StandardCharsets.UTF_8)) {
+            planned.add(GitlabAPI.MAPPER.readTree(line));
+        }
+        assertThat(planned).extracting(request -> request.get("method").asText() + " " + request.get("url").asText())
+                .containsExactly("POST " + COMMENTS_PATH, "POST " + COMMENTS_PATH, "POST /api/v3/projects/1/statuses/abc");
+        assertThat(planned.get(0).get("body").get("line").asInt()).isEqualTo(2);
+        assertThat(planned.get(1).get("body").get("note").asText()).isEqualTo("SonarQube analysis reported 1 issue\n");
+        assertThat(planned.get(2).get("body").get("state").asText()).isEqualTo("success");
+    }
+
+    private static FakeGitLabServer commitServer() throws IOException {
+        final GitlabCommitDiff diff = new GitlabCommitDiff();
+        diff.setNewPath("src/Foo.java");
+        diff.setDiff("@@ -1,2 +1,3 @@\n a\n+b\n c\n");
+        final FakeGitLabServer server = new FakeGitLabServer().withProject(1)
+                .withCommitDiffs(1, "abc", Collections.singletonList(diff))
+                .withCommitComments(1, "abc", Collections.emptyList());
+        server.on("POST", COMMENTS_PATH, request -> FakeGitLabServer.Response.status(201).body(request.body));
+        return server;
+    }
+
+    private static Settings settings(String url) {
+        final Settings settings = new Settings();
+        settings.setProperty("sonar.gitlab.url", url);
+        settings.setProperty("sonar.gitlab.user_token", "secret-token");
+        settings.setProperty("sonar.gitlab.project_id", "1");
+        settings.setProperty("sonar.gitlab.commit_sha", "abc");
+        return settings;
+    }
+
+    private CommitFacade initFacade(Settings settings) {
+        final CommitFacade commitFacade = new CommitFacade(new GitLabPluginConfiguration(settings), new GitLabMetrics());
+        commitFacade.init(temp.getRoot());
+        return commitFacade;
+    }
+
+}
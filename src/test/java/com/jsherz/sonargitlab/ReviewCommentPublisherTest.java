@@ -0,0 +1,375 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.CommitFacade;
+import com.synaptix.sonar.plugins.gitlab.GitLabMetrics;
+import com.synaptix.sonar.plugins.gitlab.GitLabPluginConfiguration;
+import com.synaptix.sonar.plugins.gitlab.ReviewComment;
+import com.synaptix.sonar.plugins.gitlab.ReviewCommentPublisher;
+import org.gitlab.api.GitlabAPI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.Severity;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class ReviewCommentPublisherTest {
+
+    private static final String COMMENTS_PATH = "/api/v3/projects/1/repository/commits/abc/comments";
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private final Map<Integer, AtomicInteger> postedByLine = new ConcurrentHashMap<>();
+
+    @Test
+    public void testConcurrentPublishingHidesLatency() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            server.withLatency(100);
+
+            final long start = System.currentTimeMillis();
+            final ReviewCommentPublisher.Result result = publisher(commitFacade, 8).publish(comments(40));
+            final long elapsed = System.currentTimeMillis() - start;
+
+            assertThat(result.getPublished()).isEqualTo(40);
+            assertThat(result.getFailures()).isEmpty();
+            assertThat(postedByLine).hasSize(40);
+            assertThat(elapsed).isLessThan(40 * 100 / 2);
+        }
+    }
+
+    @Test
+    public void testRateLimitedCommentsAreRetriedAfterRetryAfter() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            final AtomicInteger calls = new AtomicInteger();
+            server.on("POST", COMMENTS_PATH, request -> {
+                final int call = calls.incrementAndGet();
+                if (call > 5 && call <= 8) {
+                    return FakeGitLabServer.Response.status(429).header("Retry-After", "1").body("{\"message\":\"Retry later\"}");
+                }
+                return recordComment(request);
+            });
+
+            final long start = System.currentTimeMillis();
+            final ReviewCommentPublisher.Result result = publisher(commitFacade, 4).publish(comments(20));
+            final long elapsed = System.currentTimeMillis() - start;
+
+            assertThat(result.getFailures()).isEmpty();
+            assertThat(result.getPublished()).isEqualTo(20);
+            assertThat(postedByLine).hasSize(20);
+            assertThat(postedByLine.values()).allMatch(count -> count.get() == 1);
+            assertThat(elapsed).isGreaterThanOrEqualTo(1000);
+        }
+    }
+
+    @Test
+    public void testExhaustedRateLimitWaitsForReset() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            final AtomicInteger calls = new AtomicInteger();
+            final long reset = System.currentTimeMillis() / 1000 + 2;
+            server.on("POST", COMMENTS_PATH, request -> calls.incrementAndGet() == 1
+                    ? recordComment(request).header("RateLimit-Remaining", "0").header("RateLimit-Reset", String.valueOf(reset))
+                    : recordComment(request));
+
+            publisher(commitFacade, 1).publish(comments(2));
+
+            assertThat(System.currentTimeMillis()).isGreaterThanOrEqualTo((reset - 1) * 1000);
+            assertThat(postedByLine).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testRateLimitResetIsNotWaitedForPastThePublishDeadline() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            final AtomicInteger calls = new AtomicInteger();
+            final long reset = System.currentTimeMillis() / 1000 + 3600;
+            server.on("POST", COMMENTS_PATH, request -> calls.incrementAndGet() == 1
+                    ? recordComment(request).header("RateLimit-Remaining", "0").header("RateLimit-Reset", String.valueOf(reset))
+                    : recordComment(request));
+
+            final long start = System.currentTimeMillis();
+            commitFacade.setPublishDeadline(start + 500);
+            publisher(commitFacade, 1).publish(comments(2));
+
+            assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+            assertThat(postedByLine).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testFailuresAreReportedWithoutAbortingOtherComments() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            final AtomicInteger serverErrors = new AtomicInteger();
+            server.on("POST", COMMENTS_PATH, request -> {
+                if (request.body.contains("\"line\":13")) {
+                    return FakeGitLabServer.Response.status(400).body("{\"message\":\"line is invalid\"}");
+                }
+                if (request.body.contains("\"line\":7") && serverErrors.incrementAndGet() == 1) {
+                    return FakeGitLabServer.Response.status(502);
+                }
+                return recordComment(request);
+            });
+
+            final ReviewCommentPublisher.Result result = publisher(commitFacade, 4).publish(comments(20));
+
+            assertThat(result.getPublished()).isEqualTo(19);
+            assertThat(result.getFailures()).hasSize(1);
+            assertThat(result.getFailures().get(0).getComment().getLine()).isEqualTo(13);
+            assertThat(postedByLine).containsKey(7).doesNotContainKey(13);
+        }
+    }
+
+    @Test
+    public void testOnlyFailuresBeforeGitLabCouldCreateTheCommentAreRetried() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+            server.on("POST", COMMENTS_PATH, request -> {
+                final Map<?, ?> comment = GitlabAPI.MAPPER.readValue(request.body, Map.class);
+                final int line = (Integer) comment.get("line");
+                final boolean first = attempts.computeIfAbsent(line, key -> new AtomicInteger()).incrementAndGet() == 1;
+                if (first && line == 1) {
+                    return FakeGitLabServer.Response.status(503);
+                }
+                if (first && line == 2) {
+                    // The comment may have been created before the error
+                    return FakeGitLabServer.Response.status(500);
+                }
+                return recordComment(request);
+            });
+            final List<ReviewComment> comments = comments(3);
+            final ReviewCommentPublisher.Result result = publisher(comment -> {
+                if (comment.getLine() == 3 && attempts.computeIfAbsent(3, key -> new AtomicInteger()).incrementAndGet() == 1) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                return commitFacade.createReviewComment(comment.getPath(), comment.getLine(), comment.getBody());
+            }).publish(comments);
+
+            assertThat(postedByLine).containsOnlyKeys(1);
+            assertThat(result.getFailures()).extracting(failure -> failure.getComment().getLine()).containsOnly(2, 3);
+            assertThat(attempts.get(2).get()).isEqualTo(1);
+            assertThat(attempts.get(3).get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testConnectionFailuresAreRetried() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final ReviewCommentPublisher.Result result = publisher(comment -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ConnectException("Connection refused");
+            }
+            return true;
+        }).publish(comments(1));
+
+        assertThat(result.getPublished()).isEqualTo(1);
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCommentsAreSentByDecreasingSeverity() throws InterruptedException {
+        final CountDownLatch firstSending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final ReviewCommentPublisher publisher = new ReviewCommentPublisher(comment -> {
+            firstSending.countDown();
+            await(release);
+            sent.add(comment.getBody());
+            return true;
+        }, 1);
+
+        publisher.submit(comment(1, Severity.MINOR));
+        firstSending.await();
+        publisher.submit(comment(2, Severity.INFO));
+        publisher.submit(comment(3, Severity.MAJOR));
+        publisher.submit(comment(4, Severity.BLOCKER));
+        publisher.submit(comment(5, Severity.MAJOR));
+        release.countDown();
+
+        assertThat(publisher.finish().getPublished()).isEqualTo(5);
+        assertThat(sent).containsExactly("MINOR 1", "BLOCKER 4", "MAJOR 3", "MAJOR 5", "INFO 2");
+    }
+
+    @Test
+    public void testPublishedCommentsAreAllSentBySeverity() {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final ReviewCommentPublisher publisher = new ReviewCommentPublisher(comment -> sent.add(comment.getBody()), 1);
+
+        publisher.publish(Arrays.asList(comment(1, Severity.MINOR), comment(2, Severity.INFO), comment(3, Severity.BLOCKER),
+                comment(4, Severity.MAJOR), comment(5, Severity.CRITICAL)));
+
+        assertThat(sent).containsExactly("BLOCKER 3", "CRITICAL 5", "MAJOR 4", "MINOR 1", "INFO 2");
+    }
+
+    @Test
+    public void testCommentsLeftAtTheDeadlineAreUnsent() {
+        final long start = System.currentTimeMillis();
+        final ReviewCommentPublisher publisher = new ReviewCommentPublisher(comment -> {
+            await(new CountDownLatch(1), 100);
+            return true;
+        }, 1, 3, 10, start + 350, 0);
+        for (int line = 1; line <= 10; line++) {
+            publisher.submit(comment(line, Severity.MAJOR));
+        }
+
+        final ReviewCommentPublisher.Result result = publisher.finish();
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+        assertThat(result.getPublished()).isBetween(2, 4);
+        assertThat(result.getUnsent()).isNotEmpty();
+        // The comment being sent at the deadline is unsent, and may be published just after
+        assertThat(result.getPublished() + result.getUnsent().size()).isBetween(10, 11);
+    }
+
+    @Test
+    public void testCommentsStillBeingSentAreWaitedForThenReportedAsUnsent() {
+        final CountDownLatch neverAnswered = new CountDownLatch(1);
+        final long start = System.currentTimeMillis();
+        final ReviewCommentPublisher publisher = new ReviewCommentPublisher(comment -> {
+            // Like a blocking socket read, not interrupted
+            while (comment.getLine() == 1 && neverAnswered.getCount() > 0) {
+                try {
+                    neverAnswered.await();
+                } catch (InterruptedException e) {
+                    // Keeps waiting
+                }
+            }
+            return true;
+        }, 2, 3, 10, start + 200, 0);
+        final ReviewComment stuck = comment(1, Severity.BLOCKER);
+        publisher.submit(stuck);
+        publisher.submit(comment(2, Severity.MAJOR));
+
+        final ReviewCommentPublisher.Result result = publisher.finish(start + 400);
+
+        assertThat(System.currentTimeMillis() - start).isBetween(400L, 5000L);
+        assertThat(result.getPublished()).isEqualTo(1);
+        assertThat(result.getUnsent()).containsExactly(stuck);
+        assertThat(result.getInFlight()).isEqualTo(1);
+        neverAnswered.countDown();
+    }
+
+    @Test
+    public void testCircuitBreakerStopsCallsAfterRepeatedErrors() throws IOException {
+        try (FakeGitLabServer server = commitServer()) {
+            final CommitFacade commitFacade = initFacade(server);
+            server.on("POST", COMMENTS_PATH, request -> FakeGitLabServer.Response.status(502));
+
+            final ReviewCommentPublisher publisher = new ReviewCommentPublisher(
+                    comment -> commitFacade.createReviewComment(comment.getPath(), comment.getLine(), comment.getBody()), 1, 2, 1, Long.MAX_VALUE, 4);
+            final ReviewCommentPublisher.Result result = publisher.publish(comments(20));
+
+            assertThat(publisher.isCircuitOpen()).isTrue();
+            assertThat(result.getFailures()).hasSize(2);
+            assertThat(result.getUnsent()).hasSize(18);
+            assertThat(server.requests()).filteredOn(request -> "POST".equals(request.method)).hasSize(4);
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        await(latch, Long.MAX_VALUE);
+    }
+
+    private static void await(CountDownLatch latch, long millis) throws InterruptedIOException {
+        try {
+            latch.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static ReviewComment comment(int line, String severity) {
+        final Issue issue = mock(Issue.class);
+        when(issue.severity()).thenReturn(severity);
+        return new ReviewComment("src/Foo.java", line, severity + " " + line, Collections.singletonList(issue));
+    }
+
+    private static ReviewCommentPublisher publisher(ReviewCommentPublisher.Sender sender) {
+        return new ReviewCommentPublisher(sender, 1, 3, 10);
+    }
+
+    private static ReviewCommentPublisher publisher(CommitFacade commitFacade, int parallelism) {
+        return new ReviewCommentPublisher(comment -> commitFacade.createReviewComment(comment.getPath(), comment.getLine(), comment.getBody()),
+                parallelism, 3, 10);
+    }
+
+    private List<ReviewComment> comments(int count) {
+        final List<ReviewComment> comments = new ArrayList<>();
+        for (int line = 1; line <= count; line++) {
+            comments.add(new ReviewComment("src/Foo.java", line, "Issue on line " + line));
+        }
+        return comments;
+    }
+
+    private FakeGitLabServer commitServer() throws IOException {
+        final FakeGitLabServer server = new FakeGitLabServer().withProject(1)
+                .withCommitDiffs(1, "abc", Collections.emptyList())
+                .withCommitComments(1, "abc", Collections.emptyList());
+        server.on("POST", COMMENTS_PATH, this::recordComment);
+        return server;
+    }
+
+    private FakeGitLabServer.Response recordComment(FakeGitLabServer.Request request) throws IOException {
+        final Map<?, ?> comment = GitlabAPI.MAPPER.readValue(request.body, Map.class);
+        assertThat(comment.get("path")).isEqualTo("src/Foo.java");
+        postedByLine.computeIfAbsent((Integer) comment.get("line"), line -> new AtomicInteger()).incrementAndGet();
+        return FakeGitLabServer.Response.status(201).body(request.body);
+    }
+
+    private CommitFacade initFacade(FakeGitLabServer server) throws IOException {
+        temp.newFolder(".git");
+        final Settings settings = new Settings();
+        settings.setProperty("sonar.gitlab.url", server.url());
+        settings.setProperty("sonar.gitlab.user_token", "token");
+        settings.setProperty("sonar.gitlab.project_id", "1");
+        settings.setProperty("sonar.gitlab.commit_sha", "abc");
+        final CommitFacade commitFacade = new CommitFacade(new GitLabPluginConfiguration(settings), new GitLabMetrics());
+        commitFacade.init(temp.getRoot());
+        return commitFacade;
+    }
+
+}
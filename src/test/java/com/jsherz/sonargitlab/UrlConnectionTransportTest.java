@@ -0,0 +1,76 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2016 James Sherwood-Jones
+ * james.sherwoodjones@gmail.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jsherz.sonargitlab;
+
+import com.synaptix.sonar.plugins.gitlab.GitLabHttpClient;
+import com.synaptix.sonar.plugins.gitlab.UrlConnectionTransport;
+import org.gitlab.api.GitlabAPIException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class UrlConnectionTransportTest {
+
+    @Test
+    public void testGzipResponsesAreDecoded() throws IOException {
+        try (FakeGitLabServer server = new FakeGitLabServer()) {
+            server.on("GET", "/api/v3/version", request -> "gzip".equals(request.headers.get("accept-encoding"))
+                    ? FakeGitLabServer.Response.status(200).body("{\"version\":\"8.17.0\"}").gzip()
+                    : FakeGitLabServer.Response.status(406));
+
+            assertThat(client(server, 1000).get("/version")).isEqualTo("{\"version\":\"8.17.0\"}");
+        }
+    }
+
+    @Test
+    public void testConnectionIsReusedAcrossRequestsAndErrors() throws IOException {
+        try (FakeGitLabServer server = new FakeGitLabServer()) {
+            server.on("GET", "/api/v3/ok", request -> FakeGitLabServer.Response.status(200).body("{\"padding\":\"" + new String(new char[10_000]).replace('\0', 'x') + "\"}").gzip());
+            server.on("GET", "/api/v3/missing", request -> FakeGitLabServer.Response.status(404).body("{\"message\":\"404 Not found\"}"));
+            final GitLabHttpClient client = client(server, 1000);
+
+            for (int i = 0; i < 10; i++) {
+                client.get("/ok");
+                assertThatThrownBy(() -> client.get("/missing")).isInstanceOf(GitlabAPIException.class).hasMessageContaining("404 Not found");
+            }
+
+            assertThat(server.requests()).hasSize(20).extracting(request -> request.remotePort).containsOnly(server.requests().get(0).remotePort);
+        }
+    }
+
+    @Test
+    public void testReadTimeoutIsApplied() throws IOException {
+        try (FakeGitLabServer server = new FakeGitLabServer().withLatency(1000)) {
+            server.on("GET", "/api/v3/slow", request -> FakeGitLabServer.Response.status(200).body("{}"));
+
+            assertThatThrownBy(() -> client(server, 100).get("/slow")).isInstanceOf(SocketTimeoutException.class);
+        }
+    }
+
+    private static GitLabHttpClient client(FakeGitLabServer server, int readTimeoutMillis) {
+        return new GitLabHttpClient(server.url(), "token", new UrlConnectionTransport(1000, readTimeoutMillis));
+    }
+
+}